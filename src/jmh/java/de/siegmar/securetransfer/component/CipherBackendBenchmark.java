@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherFactory;
+import org.apache.commons.crypto.stream.CryptoInputStream;
+import org.apache.commons.crypto.stream.CryptoOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Compares the commons-crypto backends (OpenSSL native vs. JCE) and stream buffer sizes for the
+ * transformation used by {@link Cryptor}. Setup fails if a backend can't be loaded on this host
+ * (instead of silently falling back like the default configuration does).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@SuppressWarnings("checkstyle:classdataabstractioncoupling")
+public class CipherBackendBenchmark {
+
+    private static final String TRANSFORM = "AES/CBC/PKCS5Padding";
+    private static final int KEY_SIZE = 32;
+    private static final int IV_SIZE = 16;
+
+    @Param({"OPENSSL", "JCE"})
+    private CryptoCipherFactory.CipherProvider backend;
+
+    @Param({"4096", "8192", "65536"})
+    private int bufferSize;
+
+    @Param({"1024", "1048576", "1073741824"})
+    private long size;
+
+    private final Properties properties = new Properties();
+    private final SecretKeySpec key = new SecretKeySpec(new byte[KEY_SIZE], "AES");
+    private final IvParameterSpec iv = new IvParameterSpec(new byte[IV_SIZE]);
+    private Path cipherFile;
+
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException {
+        properties.setProperty(CryptoCipherFactory.CLASSES_KEY, backend.getClassName());
+        properties.setProperty(CryptoInputStream.STREAM_BUFFER_SIZE_KEY,
+            String.valueOf(bufferSize));
+
+        try (final CryptoCipher cipher =
+                 CryptoCipherFactory.getCryptoCipher(TRANSFORM, properties)) {
+            if (!cipher.getClass().getName().equals(backend.getClassName())) {
+                throw new IllegalStateException("Backend " + backend + " not available");
+            }
+        }
+
+        cipherFile = Files.createTempFile("cipher-benchmark", ".data");
+        try (final OutputStream out = new CryptoOutputStream(TRANSFORM, properties,
+            Files.newOutputStream(cipherFile), key, iv)) {
+            ByteStreams.copy(new RepeatingInputStream(size), out);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(cipherFile);
+    }
+
+    @Benchmark
+    public long encryptStream() throws IOException {
+        try (final OutputStream out = new CryptoOutputStream(TRANSFORM, properties,
+            ByteStreams.nullOutputStream(), key, iv)) {
+            return ByteStreams.copy(new RepeatingInputStream(size), out);
+        }
+    }
+
+    @Benchmark
+    public long decryptStream() throws IOException {
+        try (final InputStream in = new CryptoInputStream(TRANSFORM, properties,
+            Files.newInputStream(cipherFile), key, iv)) {
+            return ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        }
+    }
+
+}
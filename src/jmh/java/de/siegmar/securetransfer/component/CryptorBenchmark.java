@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.siegmar.securetransfer.domain.KeyIv;
+
+/**
+ * Small payload operations as done for every message: key wrapping (32 bytes),
+ * file name encryption (up to 255 bytes) and the password/link secret key derivation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptorBenchmark {
+
+    private static final byte[] SALT = {34, 23, 56, 23, 68, 34, 23, 54};
+    private static final String PASSWORD = "top secret password";
+
+    @Param({"32", "255"})
+    private int payloadSize;
+
+    private Cryptor cryptor;
+    private KeyIv keyIv;
+    private byte[] plain;
+    private byte[] encrypted;
+    private byte[] linkSecret;
+
+    @Setup
+    public void setup() {
+        cryptor = new Cryptor(SALT);
+        keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+        plain = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(plain);
+        encrypted = cryptor.encrypt(plain, keyIv);
+        linkSecret = cryptor.newKey();
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return cryptor.encrypt(plain, keyIv);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return cryptor.decrypt(encrypted, keyIv);
+    }
+
+    @Benchmark
+    public byte[] keyFromSaltedPasswordAndSecret() {
+        return cryptor.keyFromSaltedPasswordAndSecret(PASSWORD, linkSecret);
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.ByteStreams;
+
+import de.siegmar.securetransfer.domain.KeyIv;
+import de.siegmar.securetransfer.domain.StorageFormat;
+
+/**
+ * Streaming encryption/decryption through {@link Cryptor} as used by every upload and download.
+ * The cipher text for the decryption benchmark is read from a temporary file (page cache),
+ * plain text is generated on the fly and all output is discarded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptorStreamBenchmark {
+
+    private static final byte[] SALT = {34, 23, 56, 23, 68, 34, 23, 54};
+
+    @Param({"1024", "1048576", "1073741824"})
+    private long size;
+
+    @Param({"CBC", "CBC_SEGMENTED"})
+    private StorageFormat format;
+
+    private Cryptor cryptor;
+    private KeyIv keyIv;
+    private Path cipherFile;
+
+    @Setup
+    public void setup() throws IOException {
+        cryptor = new Cryptor(SALT);
+        keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+        cipherFile = Files.createTempFile("cryptor-benchmark", ".data");
+
+        try (final OutputStream out =
+                 cryptor.getCryptOut(Files.newOutputStream(cipherFile), keyIv, format)) {
+            ByteStreams.copy(new RepeatingInputStream(size), out);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(cipherFile);
+    }
+
+    @Benchmark
+    public long encryptStream() throws IOException {
+        try (final OutputStream out =
+                 cryptor.getCryptOut(ByteStreams.nullOutputStream(), keyIv, format)) {
+            return ByteStreams.copy(new RepeatingInputStream(size), out);
+        }
+    }
+
+    @Benchmark
+    public long decryptStream() throws IOException {
+        try (final InputStream in =
+                 cryptor.getCryptIn(Files.newInputStream(cipherFile), keyIv, format)) {
+            return ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        }
+    }
+
+}
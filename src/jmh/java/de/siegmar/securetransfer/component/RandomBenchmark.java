@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random ID, key and IV generation by concurrent requests.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class RandomBenchmark {
+
+    private static final byte[] SALT = {34, 23, 56, 23, 68, 34, 23, 54};
+
+    private Cryptor cryptor;
+
+    @Setup
+    public void setup() {
+        cryptor = new Cryptor(SALT);
+    }
+
+    @Benchmark
+    public String newRandomId() {
+        return cryptor.newRandomId();
+    }
+
+    @Benchmark
+    public byte[] newKey() {
+        return cryptor.newKey();
+    }
+
+    @Benchmark
+    public byte[] newIv() {
+        return cryptor.newIv();
+    }
+
+}
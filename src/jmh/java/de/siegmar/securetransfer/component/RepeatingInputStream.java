@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Serves a fixed amount of pseudo random bytes without materializing them in memory.
+ */
+class RepeatingInputStream extends InputStream {
+
+    private static final int PATTERN_SIZE = 8192;
+    private static final int BYTE_MASK = 0xff;
+
+    private final byte[] pattern = new byte[PATTERN_SIZE];
+    private final long size;
+    private long pos;
+
+    RepeatingInputStream(final long size) {
+        this.size = size;
+        new Random(size).nextBytes(pattern);
+    }
+
+    @Override
+    public int read() {
+        if (pos >= size) {
+            return -1;
+        }
+        return pattern[(int) (pos++ % PATTERN_SIZE)] & BYTE_MASK;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (pos >= size) {
+            return -1;
+        }
+
+        final int patternPos = (int) (pos % PATTERN_SIZE);
+        final int cnt = (int) Math.min(Math.min(len, PATTERN_SIZE - patternPos), size - pos);
+        System.arraycopy(pattern, patternPos, b, off, cnt);
+        pos += cnt;
+        return cnt;
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of equally sized byte buffers. Buffers are wiped when returned to the pool as
+ * they may contain plaintext.
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> idle;
+
+    BufferPool(final int bufferSize, final int maxIdle) {
+        this.bufferSize = bufferSize;
+        idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    byte[] acquire() {
+        final byte[] buf = idle.poll();
+        return buf != null ? buf : new byte[bufferSize];
+    }
+
+    /**
+     * Wipes the buffer and returns it to the pool.
+     *
+     * @return {@code false} if the pool is full and the buffer is left to the garbage collector.
+     */
+    boolean release(final byte[] buf) {
+        Arrays.fill(buf, (byte) 0);
+        return idle.offer(buf);
+    }
+
+}
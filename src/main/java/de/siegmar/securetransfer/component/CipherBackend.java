@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherFactory;
+import org.apache.commons.crypto.cipher.CryptoCipherFactory.CipherProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A commons-crypto cipher backend and its throughput measured on this host.
+ *
+ * Without explicit configuration commons-crypto silently falls back to the (potentially much
+ * slower) JCE backend if the native OpenSSL library can't be loaded - the selection therefore
+ * loads each backend explicitly and benchmarks it for a moment.
+ */
+public final class CipherBackend {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CipherBackend.class);
+
+    private static final String TRANSFORM = "AES/CBC/NoPadding";
+    private static final int KEY_SIZE = 32;
+    private static final int IV_SIZE = 16;
+    private static final int BENCHMARK_BUFFER_SIZE = 4096;
+
+    // JCE needs about 300 ms until the JIT compiled AES intrinsics are used
+    private static final long WARMUP_NANOS = TimeUnit.MILLISECONDS.toNanos(400);
+    private static final long MEASURE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final CipherProvider provider;
+    private final double throughput;
+
+    private CipherBackend(final CipherProvider provider, final double throughput) {
+        this.provider = provider;
+        this.throughput = throughput;
+    }
+
+    /**
+     * Loads and benchmarks the backend(s) for the given mode.
+     *
+     * @throws IllegalStateException if the requested backend is not available
+     */
+    public static CipherBackend select(final CipherBackendMode mode) {
+        final List<CipherBackend> backends = new ArrayList<>();
+
+        for (final CipherProvider provider : CipherProvider.values()) {
+            if (mode == CipherBackendMode.AUTO || mode.name().equals(provider.name())) {
+                final CipherBackend backend = measure(provider);
+                if (backend != null) {
+                    backends.add(backend);
+                }
+            }
+        }
+
+        final CipherBackend selected = backends.stream()
+            .max(Comparator.comparingDouble(CipherBackend::getThroughput))
+            .orElseThrow(() ->
+                new IllegalStateException("No crypto backend available for mode " + mode));
+
+        LOG.info("Selected {} crypto backend ({} MB/s)", selected.provider,
+            Math.round(selected.throughput));
+
+        return selected;
+    }
+
+    private static CipherBackend measure(final CipherProvider provider) {
+        final Properties properties = buildProperties(provider);
+
+        try (final CryptoCipher cipher =
+                 CryptoCipherFactory.getCryptoCipher(TRANSFORM, properties)) {
+
+            if (!cipher.getClass().getName().equals(provider.getClassName())) {
+                LOG.warn("Crypto backend {} not available", provider);
+                return null;
+            }
+
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[KEY_SIZE], "AES"),
+                new IvParameterSpec(new byte[IV_SIZE]));
+
+            final byte[] buf = new byte[BENCHMARK_BUFFER_SIZE];
+            run(cipher, buf, WARMUP_NANOS);
+            final long start = System.nanoTime();
+            final long bytes = run(cipher, buf, MEASURE_NANOS);
+            final double throughput =
+                bytes / BYTES_PER_MB / ((System.nanoTime() - start) / NANOS_PER_SECOND);
+
+            LOG.info("Crypto backend {}: {} MB/s", provider, Math.round(throughput));
+            return new CipherBackend(provider, throughput);
+        } catch (final GeneralSecurityException | LinkageError e) {
+            LOG.warn("Crypto backend {} not available: {}", provider, e.getMessage());
+            return null;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long run(final CryptoCipher cipher, final byte[] buf, final long nanos)
+        throws GeneralSecurityException {
+
+        final long end = System.nanoTime() + nanos;
+        long bytes = 0;
+        do {
+            bytes += cipher.update(buf, 0, buf.length, buf, 0);
+        } while (System.nanoTime() < end);
+        return bytes;
+    }
+
+    private static Properties buildProperties(final CipherProvider provider) {
+        final Properties properties = new Properties();
+        properties.setProperty(CryptoCipherFactory.CLASSES_KEY, provider.getClassName());
+        return properties;
+    }
+
+    public CipherProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Returns the measured encryption throughput in MB/s.
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    Properties getProperties() {
+        return buildProperties(provider);
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+/**
+ * Configured selection of the commons-crypto cipher backend.
+ */
+public enum CipherBackendMode {
+
+    /**
+     * Benchmark all available backends on startup and use the fastest.
+     */
+    AUTO,
+
+    /**
+     * Native OpenSSL backend - fails on startup if it can't be loaded.
+     */
+    OPENSSL,
+
+    /**
+     * Java Cryptography Extension backend.
+     */
+    JCE
+
+}
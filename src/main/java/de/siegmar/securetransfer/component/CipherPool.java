@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+
+import org.apache.commons.crypto.cipher.CryptoCipher;
+import org.apache.commons.crypto.cipher.CryptoCipherFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of cipher instances for one transformation. Creating a cipher is expensive
+ * (especially for the OpenSSL backend which allocates a native context) while re-initializing
+ * it with a new key/IV is cheap.
+ */
+class CipherPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CipherPool.class);
+
+    private final String transformation;
+    private final Properties properties;
+    private final BlockingQueue<CryptoCipher> idle;
+
+    CipherPool(final String transformation, final Properties properties, final int maxIdle) {
+        this.transformation = transformation;
+        this.properties = properties;
+        idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Borrow a cipher from the pool. Closing the returned cipher hands it back to the pool.
+     */
+    PooledCipher borrow() {
+        final CryptoCipher cipher = idle.poll();
+        return new PooledCipher(cipher != null ? cipher : newCipher());
+    }
+
+    private CryptoCipher newCipher() {
+        try {
+            return CryptoCipherFactory.getCryptoCipher(transformation, properties);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void release(final CryptoCipher cipher) {
+        if (!idle.offer(cipher)) {
+            try {
+                cipher.close();
+            } catch (final IOException e) {
+                LOG.warn("Error closing cipher", e);
+            }
+        }
+    }
+
+    final class PooledCipher implements CryptoCipher {
+
+        private CryptoCipher delegate;
+
+        private PooledCipher(final CryptoCipher delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int getBlockSize() {
+            return delegate.getBlockSize();
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return delegate.getAlgorithm();
+        }
+
+        @Override
+        public void init(final int mode, final Key key, final AlgorithmParameterSpec params)
+            throws InvalidKeyException, InvalidAlgorithmParameterException {
+            delegate.init(mode, key, params);
+        }
+
+        @Override
+        public int update(final ByteBuffer inBuffer, final ByteBuffer outBuffer)
+            throws ShortBufferException {
+            return delegate.update(inBuffer, outBuffer);
+        }
+
+        @Override
+        public int update(final byte[] input, final int inputOffset, final int inputLen,
+                          final byte[] output, final int outputOffset)
+            throws ShortBufferException {
+            return delegate.update(input, inputOffset, inputLen, output, outputOffset);
+        }
+
+        @Override
+        public int doFinal(final ByteBuffer inBuffer, final ByteBuffer outBuffer)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+            return delegate.doFinal(inBuffer, outBuffer);
+        }
+
+        @Override
+        public int doFinal(final byte[] input, final int inputOffset, final int inputLen,
+                           final byte[] output, final int outputOffset)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+            return delegate.doFinal(input, inputOffset, inputLen, output, outputOffset);
+        }
+
+        @Override
+        public void close() {
+            if (delegate != null) {
+                release(delegate);
+                delegate = null;
+            }
+        }
+
+    }
+
+}
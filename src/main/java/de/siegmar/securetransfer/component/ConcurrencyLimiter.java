@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent requests (e.g. uploads or downloads). The number of requests
+ * in flight is a single counter that is updated lock-free.
+ */
+public class ConcurrencyLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final int maxConcurrent;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder durationNanos = new LongAdder();
+
+    public ConcurrencyLimiter(final int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Tries to start a request.
+     *
+     * @return {@code true} if the request may start and {@link #release(long)} has to be
+     *     called after it has ended
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = inFlight.get();
+
+            if (current >= maxConcurrent) {
+                rejected.increment();
+                return false;
+            }
+
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends a request.
+     *
+     * @param startNanos the {@link System#nanoTime()} the request has been started
+     */
+    public void release(final long startNanos) {
+        durationNanos.add(System.nanoTime() - startNanos);
+        completed.increment();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Estimates the time (in seconds) until one of the requests in flight has ended - assuming
+     * their ends are spread evenly.
+     */
+    public long getRetryAfterSeconds() {
+        final long cnt = completed.sum();
+        if (cnt == 0) {
+            return 1;
+        }
+
+        final long slotNanos = durationNanos.sum() / cnt / maxConcurrent;
+        final long seconds = (slotNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND;
+        return Math.min(MAX_RETRY_AFTER_SECONDS, Math.max(1, seconds));
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+}
@@ -16,8 +16,6 @@
 
 package de.siegmar.securetransfer.component;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -28,7 +26,12 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -42,11 +45,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import de.siegmar.securetransfer.domain.KeyIv;
+import de.siegmar.securetransfer.domain.StorageFormat;
 
-@SuppressWarnings("checkstyle:classdataabstractioncoupling")
+@SuppressWarnings({"checkstyle:classdataabstractioncoupling",
+    "checkstyle:classfanoutcomplexity"})
 public class Cryptor {
 
     private static final Logger LOG = LoggerFactory.getLogger(Cryptor.class);
@@ -55,20 +62,77 @@ public class Cryptor {
     private static final int SALT_SIZE = 8;
     private static final int IV_SIZE = 16;
     private static final int KEY_SIZE = 32;
+    private static final int ID_SIZE = 32;
+    private static final int RANDOM_BATCH_SIZE = 4096;
+    private static final int BLOCK_SIZE = 16;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    private static final int SEGMENT_WRITE_HEAP_FRACTION = 16;
     private static final String TRANSFORM = "AES/CBC/PKCS5Padding";
+    private static final String SEGMENT_TRANSFORM = "AES/CBC/NoPadding";
+    private static final int MAX_IDLE_CIPHERS = Runtime.getRuntime().availableProcessors() * 2;
 
-    private final CryptoRandom random;
+    private final RandomPool randomPool;
     private final byte[] salt;
+    private final CipherPool cipherPool;
+    private final CipherPool segmentCipherPool;
 
+    // segment encryption is pure CPU work without blocking
+    private final Executor segmentExecutor = ForkJoinPool.commonPool();
+    private final int maxPendingSegments = (ForkJoinPool.getCommonPoolParallelism() + 1) * 2;
+
+    // writing encrypted segments blocks on I/O - keep it away from the fork/join pool
+    private final Executor segmentWriteExecutor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("segment-writer-%d").setDaemon(true).build());
+
+    // padding of the last segment adds up to one block
+    private final BufferPool segmentBufferPool =
+        new BufferPool(SEGMENT_SIZE + BLOCK_SIZE, maxPendingSegments * 2);
+
+    // segments read ahead by all decrypting streams together (two buffers each at most)
+    private final Semaphore segmentReadAheadPermits = new Semaphore(maxPendingSegments * 2);
+
+    // segments in flight of all encrypting streams together (plaintext and ciphertext buffer
+    // each) - limited to a fraction of the heap
+    private final Semaphore segmentWritePermits = new Semaphore((int) Math.max(1,
+        Runtime.getRuntime().maxMemory() / SEGMENT_WRITE_HEAP_FRACTION
+            / (2 * (SEGMENT_SIZE + BLOCK_SIZE))));
+
+    /**
+     * Creates a Cryptor using the default backend selection of commons-crypto.
+     */
     public Cryptor(final Path baseDir) {
+        this(baseDir, new Properties());
+    }
+
+    public Cryptor(final Path baseDir, final CipherBackend backend) {
+        this(baseDir, backend.getProperties());
+    }
+
+    private Cryptor(final Path baseDir, final Properties cipherProperties) {
         validateCipherKeyLength();
-        random = initRandom();
+        randomPool = initRandomPool();
+        cipherPool = new CipherPool(TRANSFORM, cipherProperties, MAX_IDLE_CIPHERS);
+        segmentCipherPool = new CipherPool(SEGMENT_TRANSFORM, cipherProperties, MAX_IDLE_CIPHERS);
         this.salt = initSalt(baseDir);
     }
 
+    /**
+     * Creates a Cryptor using the default backend selection of commons-crypto.
+     */
     public Cryptor(final byte[] salt) {
+        this(salt, new Properties());
+    }
+
+    public Cryptor(final byte[] salt, final CipherBackend backend) {
+        this(salt, backend.getProperties());
+    }
+
+    private Cryptor(final byte[] salt, final Properties cipherProperties) {
         validateCipherKeyLength();
-        random = initRandom();
+        randomPool = initRandomPool();
+        cipherPool = new CipherPool(TRANSFORM, cipherProperties, MAX_IDLE_CIPHERS);
+        segmentCipherPool = new CipherPool(SEGMENT_TRANSFORM, cipherProperties, MAX_IDLE_CIPHERS);
         this.salt = salt.clone();
     }
 
@@ -87,11 +151,11 @@ public class Cryptor {
         }
     }
 
-    private CryptoRandom initRandom() {
+    private RandomPool initRandomPool() {
         try {
             final CryptoRandom cryptoRandom = CryptoRandomFactory.getCryptoRandom();
             LOG.info("Initialized {} for secure random generation", cryptoRandom.getClass());
-            return cryptoRandom;
+            return new RandomPool(cryptoRandom, RANDOM_BATCH_SIZE);
         } catch (final GeneralSecurityException e) {
             throw new IllegalStateException(e);
         }
@@ -114,26 +178,41 @@ public class Cryptor {
         }
     }
 
+    /**
+     * Encrypt a small payload (keys, file names, messages) in a single pass.
+     */
     public byte[] encrypt(final byte[] src, final KeyIv keyIv) {
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try (final OutputStream out = getCryptOut(bos, keyIv)) {
-            ByteStreams.copy(new ByteArrayInputStream(src), out);
-        } catch (final IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        try (final CipherPool.PooledCipher cipher = cipherPool.borrow()) {
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyIv.getKey(), "AES"),
+                new IvParameterSpec(keyIv.getIv()));
 
-        return bos.toByteArray();
+            // PKCS5 padding adds 1 to BLOCK_SIZE bytes
+            final byte[] out = new byte[src.length + BLOCK_SIZE - src.length % BLOCK_SIZE];
+            final int len = cipher.doFinal(src, 0, src.length, out, 0);
+            return len == out.length ? out : Arrays.copyOf(out, len);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     public byte[] encryptString(final String src, final KeyIv keyIv) {
         return encrypt(src.getBytes(StandardCharsets.UTF_8), keyIv);
     }
 
+    /**
+     * Decrypt a small payload (keys, file names, messages) in a single pass.
+     */
     public byte[] decrypt(final byte[] src, final KeyIv keyIv) {
-        try (final InputStream cryptIn = getCryptIn(new ByteArrayInputStream(src), keyIv)) {
-            return ByteStreams.toByteArray(cryptIn);
-        } catch (final IOException e) {
-            throw new UncheckedIOException(e);
+        try (final CipherPool.PooledCipher cipher = cipherPool.borrow()) {
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(keyIv.getKey(), "AES"),
+                new IvParameterSpec(keyIv.getIv()));
+
+            final byte[] out = new byte[src.length];
+            final int len = cipher.doFinal(src, 0, src.length, out, 0);
+            return Arrays.copyOf(out, len);
+        } catch (final GeneralSecurityException e) {
+            // same failure as a decrypting stream would raise (e.g. wrong key -> bad padding)
+            throw new UncheckedIOException(new IOException(e));
         }
     }
 
@@ -143,14 +222,117 @@ public class Cryptor {
 
     public OutputStream getCryptOut(final OutputStream out, final KeyIv keyIv)
         throws IOException {
-        return new CryptoOutputStream(TRANSFORM, new Properties(), out,
-            new SecretKeySpec(keyIv.getKey(), "AES"), new IvParameterSpec(keyIv.getIv()));
+        return new CryptoOutputStream(out, cipherPool.borrow(), STREAM_BUFFER_SIZE,
+            new SecretKeySpec(keyIv.getKey(), "AES"), new IvParameterSpec(keyIv.getIv())) {
+        };
+    }
+
+    public OutputStream getCryptOut(final OutputStream out, final KeyIv keyIv,
+                                    final StorageFormat format) throws IOException {
+        switch (format) {
+            case CBC:
+                return getCryptOut(out, keyIv);
+            case CBC_SEGMENTED:
+                return new SegmentedCryptoOutputStream(out,
+                    new SegmentCipher(segmentCipherPool, cipherPool, keyIv, Cipher.ENCRYPT_MODE),
+                    segmentExecutor, segmentWriteExecutor, segmentBufferPool, segmentWritePermits,
+                    SEGMENT_SIZE, maxPendingSegments, 0, true);
+            default:
+                throw new IllegalArgumentException("Unknown storage format " + format);
+        }
+    }
+
+    /**
+     * Creates a stream that continues a {@link StorageFormat#CBC_SEGMENTED} encryption at the
+     * given plaintext offset (a multiple of {@link #getSegmentSize()}). Unless {@code last} is
+     * set, the written data has to end at a segment boundary and the encryption can be continued
+     * later on.
+     */
+    public OutputStream getSegmentedAppendOut(final OutputStream out, final KeyIv keyIv,
+                                              final long offset, final boolean last) {
+        if (offset % SEGMENT_SIZE != 0) {
+            throw new IllegalArgumentException("Offset " + offset
+                + " is not a multiple of the segment size " + SEGMENT_SIZE);
+        }
+
+        return new SegmentedCryptoOutputStream(out,
+            new SegmentCipher(segmentCipherPool, cipherPool, keyIv, Cipher.ENCRYPT_MODE),
+            segmentExecutor, segmentWriteExecutor, segmentBufferPool, segmentWritePermits,
+            SEGMENT_SIZE, maxPendingSegments, offset / SEGMENT_SIZE, last);
+    }
+
+    public int getSegmentSize() {
+        return SEGMENT_SIZE;
     }
 
     public InputStream getCryptIn(final InputStream in, final KeyIv keyIv)
         throws IOException {
-        return new CryptoInputStream(TRANSFORM, new Properties(), in,
-            new SecretKeySpec(keyIv.getKey(), "AES"), new IvParameterSpec(keyIv.getIv()));
+        return new CryptoInputStream(in, cipherPool.borrow(), STREAM_BUFFER_SIZE,
+            new SecretKeySpec(keyIv.getKey(), "AES"), new IvParameterSpec(keyIv.getIv())) {
+        };
+    }
+
+    public InputStream getCryptIn(final InputStream in, final KeyIv keyIv,
+                                  final StorageFormat format) throws IOException {
+        return getCryptIn(in, keyIv, format, 0);
+    }
+
+    /**
+     * Creates a stream that decrypts from the given plaintext offset. The encrypted input stream
+     * has to be positioned at {@link #getCipherPosition(StorageFormat, long)}.
+     */
+    public InputStream getCryptIn(final InputStream in, final KeyIv keyIv,
+                                  final StorageFormat format, final long offset)
+        throws IOException {
+
+        final InputStream cryptIn;
+        final long skip;
+        switch (format) {
+            case CBC:
+                cryptIn = getCbcCryptIn(in, keyIv, offset / BLOCK_SIZE);
+                skip = offset % BLOCK_SIZE;
+                break;
+            case CBC_SEGMENTED:
+                cryptIn = new SegmentedCryptoInputStream(in,
+                    new SegmentCipher(segmentCipherPool, cipherPool, keyIv, Cipher.DECRYPT_MODE),
+                    segmentExecutor, segmentBufferPool, segmentReadAheadPermits, SEGMENT_SIZE,
+                    maxPendingSegments, offset / SEGMENT_SIZE);
+                skip = offset % SEGMENT_SIZE;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage format " + format);
+        }
+
+        ByteStreams.skipFully(cryptIn, skip);
+        return cryptIn;
+    }
+
+    private InputStream getCbcCryptIn(final InputStream in, final KeyIv keyIv, final long block)
+        throws IOException {
+
+        if (block == 0) {
+            return getCryptIn(in, keyIv);
+        }
+
+        // the previous cipher block is the iv of the block to decrypt
+        final byte[] iv = new byte[BLOCK_SIZE];
+        ByteStreams.readFully(in, iv);
+        return getCryptIn(in, new KeyIv(keyIv.getKey(), iv));
+    }
+
+    /**
+     * Returns the position within the encrypted data that is required to decrypt from the given
+     * plaintext offset.
+     */
+    public long getCipherPosition(final StorageFormat format, final long offset) {
+        switch (format) {
+            case CBC:
+                return Math.max(0, offset / BLOCK_SIZE - 1) * BLOCK_SIZE;
+            case CBC_SEGMENTED:
+                return offset / SEGMENT_SIZE * SEGMENT_SIZE;
+            default:
+                throw new IllegalArgumentException("Unknown storage format " + format);
+        }
     }
 
     public byte[] keyFromSaltedPasswordAndSecret(final String password, final byte[] linkSecret) {
@@ -169,10 +351,26 @@ public class Cryptor {
         return newRandom(KEY_SIZE);
     }
 
-    private byte[] newRandom(final int keySize) {
-        final byte[] key = new byte[keySize];
-        random.nextBytes(key);
-        return key;
+    /**
+     * Creates a new random ID (64 hex characters) for messages and files.
+     */
+    public String newRandomId() {
+        return BaseEncoding.base16().lowerCase().encode(newRandom(ID_SIZE));
+    }
+
+    private byte[] newRandom(final int size) {
+        return randomPool.nextBytes(size);
+    }
+
+    /**
+     * Returns the number of per-thread random buffer refills from the secure random generator.
+     */
+    public long getRandomRefills() {
+        return randomPool.getRefills();
+    }
+
+    public long getRandomRefillBytes() {
+        return randomPool.getRefills() * randomPool.getBatchSize();
     }
 
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Executes the (blocking) streaming of file downloads outside of the request threads.
+ *
+ * By default downloads run on a bounded thread pool - tasks are rejected with a
+ * {@link RejectedExecutionException} if all threads are busy and the queue is full. Optionally
+ * every download runs on its own virtual thread which requires a Java 21+ runtime.
+ */
+public final class DownloadExecutor implements Executor {
+
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor threadPool;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private DownloadExecutor(final ExecutorService executor,
+                             final ThreadPoolExecutor threadPool) {
+        this.executor = executor;
+        this.threadPool = threadPool;
+    }
+
+    public static DownloadExecutor threadPool(final int threads, final int queueSize) {
+        final ThreadPoolExecutor threadPool =
+            new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("download-%d").setDaemon(true).build());
+        return new DownloadExecutor(threadPool, threadPool);
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread per download. The application is
+     * built for Java 8, so the executor is looked up via reflection.
+     *
+     * @throws IllegalStateException if the runtime doesn't support virtual threads.
+     */
+    public static DownloadExecutor virtualThreads() {
+        try {
+            return new DownloadExecutor((ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null), null);
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require a Java 21+ runtime - "
+                + "running on Java " + System.getProperty("java.version"), e);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        try {
+            executor.execute(() -> {
+                active.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.increment();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    public boolean isVirtualThreads() {
+        return threadPool == null;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getQueueDepth() {
+        return threadPool != null ? threadPool.getQueue().size() : 0;
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
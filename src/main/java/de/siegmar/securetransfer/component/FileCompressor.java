@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import de.siegmar.securetransfer.domain.Compression;
+
+/**
+ * Compresses files before they get encrypted (encrypted data can't be compressed anymore).
+ * Files that are compressed already (identified by their first bytes) are stored as is.
+ */
+public final class FileCompressor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileCompressor.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // signatures of compressed archives, images, audio and video formats
+    private static final List<Signature> COMPRESSED_SIGNATURES = ImmutableList.of(
+        new Signature("gzip", 0, 0x1F, 0x8B),
+        new Signature("zip, docx, xlsx, odt, jar, apk", 0, 0x50, 0x4B, 0x03, 0x04),
+        new Signature("bzip2", 0, 0x42, 0x5A, 0x68),
+        new Signature("xz", 0, 0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00),
+        new Signature("zstd", 0, 0x28, 0xB5, 0x2F, 0xFD),
+        new Signature("7z", 0, 0x37, 0x7A, 0xBC, 0xAF, 0x27, 0x1C),
+        new Signature("rar", 0, 0x52, 0x61, 0x72, 0x21),
+        new Signature("jpeg", 0, 0xFF, 0xD8, 0xFF),
+        new Signature("png", 0, 0x89, 0x50, 0x4E, 0x47),
+        new Signature("gif", 0, 0x47, 0x49, 0x46, 0x38),
+        new Signature("webp", 8, 0x57, 0x45, 0x42, 0x50),
+        new Signature("mp4, mov, heic", 4, 0x66, 0x74, 0x79, 0x70),
+        new Signature("mkv, webm", 0, 0x1A, 0x45, 0xDF, 0xA3),
+        new Signature("mp3", 0, 0x49, 0x44, 0x33),
+        new Signature("ogg", 0, 0x4F, 0x67, 0x67, 0x53),
+        new Signature("flac", 0, 0x66, 0x4C, 0x61, 0x43)
+    );
+
+    private static final int SNIFF_SIZE = COMPRESSED_SIGNATURES.stream()
+        .mapToInt(Signature::getEnd).max().getAsInt();
+
+    private FileCompressor() {
+    }
+
+    /**
+     * Wraps the stream to allow {@link #select(PushbackInputStream, Compression)}.
+     */
+    public static PushbackInputStream sniffable(final InputStream in) {
+        return new PushbackInputStream(in, SNIFF_SIZE);
+    }
+
+    /**
+     * Selects the compression for the data of the given stream without consuming it.
+     */
+    public static Compression select(final PushbackInputStream in, final Compression compression)
+        throws IOException {
+
+        if (compression == Compression.NONE) {
+            return compression;
+        }
+
+        final byte[] head = new byte[SNIFF_SIZE];
+        final int len = ByteStreams.read(in, head, 0, head.length);
+        in.unread(head, 0, len);
+
+        final Optional<Signature> signature = COMPRESSED_SIGNATURES.stream()
+            .filter(s -> s.matches(head, len))
+            .findFirst();
+
+        if (signature.isPresent()) {
+            LOG.debug("Skip compression of already compressed data ({})", signature.get());
+            return Compression.NONE;
+        }
+
+        return compression;
+    }
+
+    public static OutputStream compress(final OutputStream out, final Compression compression)
+        throws IOException {
+
+        switch (compression) {
+            case NONE:
+                return out;
+            case DEFLATE:
+                return new DeflateOutputStream(out);
+            case GZIP:
+                return new FastGzipOutputStream(out);
+            default:
+                throw new IllegalArgumentException("Unknown compression " + compression);
+        }
+    }
+
+    public static InputStream decompress(final InputStream in, final Compression compression)
+        throws IOException {
+
+        switch (compression) {
+            case NONE:
+                return in;
+            case DEFLATE:
+                return new InflateInputStream(in);
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            default:
+                throw new IllegalArgumentException("Unknown compression " + compression);
+        }
+    }
+
+    private static final class Signature {
+
+        private final String format;
+        private final int offset;
+        private final byte[] magic;
+
+        Signature(final String format, final int offset, final int... magic) {
+            this.format = format;
+            this.offset = offset;
+            this.magic = new byte[magic.length];
+            for (int i = 0; i < magic.length; i++) {
+                this.magic[i] = (byte) magic[i];
+            }
+        }
+
+        @Override
+        public String toString() {
+            return format;
+        }
+
+        int getEnd() {
+            return offset + magic.length;
+        }
+
+        boolean matches(final byte[] data, final int len) {
+            if (len < getEnd()) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (data[offset + i] != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    // the (native) deflater isn't released by DeflaterOutputStream if passed in
+    private static final class DeflateOutputStream extends DeflaterOutputStream {
+
+        DeflateOutputStream(final OutputStream out) {
+            super(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+
+    }
+
+    private static final class InflateInputStream extends InflaterInputStream {
+
+        InflateInputStream(final InputStream in) {
+            super(in, new Inflater(), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+
+    }
+
+    private static final class FastGzipOutputStream extends GZIPOutputStream {
+
+        FastGzipOutputStream(final OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs BCrypt hashing and verification on a dedicated, bounded thread pool. This keeps the CPU
+ * time spent for password hashing within the configured number of threads - a burst of
+ * password protected messages or guessing attempts can't starve the request threads.
+ *
+ * Password checks are rejected with a {@link RejectedExecutionException} if all threads are
+ * busy and the queue is full. Hashing (sending a message) waits for a free slot instead - it
+ * runs after the files of the message have been stored and a rejection would discard them.
+ */
+public class PasswordHasher {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final int queueSize;
+
+    // running and queued tasks
+    private final Semaphore slots;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder execNanos = new LongAdder();
+
+    public PasswordHasher(final int threads, final int queueSize) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+        slots = new Semaphore(threads + queueSize);
+
+        // slots are released before the worker thread is free - the queue has to take that up
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads + queueSize),
+            new ThreadFactoryBuilder().setNameFormat("bcrypt-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Hashes the password - waits for a free slot if all threads are busy and the queue is full.
+     */
+    public CompletableFuture<String> hash(final String password) {
+        slots.acquireUninterruptibly();
+        return submit(() -> BCrypt.hashpw(password, BCrypt.gensalt()));
+    }
+
+    /**
+     * Checks the password against the hash.
+     *
+     * @throws RejectedExecutionException if all threads are busy and the queue is full
+     */
+    public CompletableFuture<Boolean> check(final String password, final String hashed) {
+        if (!slots.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Password hashing queue is full");
+        }
+        return submit(() -> BCrypt.checkpw(password, hashed));
+    }
+
+    // the caller has acquired a slot
+    private <T> CompletableFuture<T> submit(final Supplier<T> task) {
+        final long enqueued = System.nanoTime();
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                final long started = System.nanoTime();
+                waitNanos.add(started - enqueued);
+                try {
+                    return task.get();
+                } finally {
+                    execNanos.add(System.nanoTime() - started);
+                    completed.increment();
+                    slots.release();
+                }
+            }, executor);
+        } catch (final RejectedExecutionException e) {
+            // shut down
+            slots.release();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Estimates the time (in seconds) until a full queue has been processed.
+     */
+    public long getRetryAfterSeconds() {
+        final long cnt = completed.sum();
+        if (cnt == 0) {
+            return 1;
+        }
+
+        final long avgExecNanos = execNanos.sum() / cnt;
+        final long drainNanos = avgExecNanos * (queueSize / threads + 1);
+        return Math.max(1, (drainNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    public long getExecMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(execNanos.sum());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
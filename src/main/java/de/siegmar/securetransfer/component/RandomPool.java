@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.crypto.random.CryptoRandom;
+
+/**
+ * Serves random bytes from per-thread buffers that are refilled in batches from a shared
+ * {@link CryptoRandom}. Sending a message requires several keys, IVs and IDs - fetching them
+ * from the thread's own buffer avoids contention on the shared random generator.
+ *
+ * Served bytes are wiped from the buffer.
+ */
+final class RandomPool {
+
+    private final CryptoRandom random;
+    private final int batchSize;
+    private final ThreadLocal<Batch> batches;
+    private final LongAdder refills = new LongAdder();
+
+    RandomPool(final CryptoRandom random, final int batchSize) {
+        this.random = random;
+        this.batchSize = batchSize;
+        batches = ThreadLocal.withInitial(() -> new Batch(batchSize));
+    }
+
+    byte[] nextBytes(final int size) {
+        final byte[] bytes = new byte[size];
+
+        if (size > batchSize) {
+            random.nextBytes(bytes);
+            return bytes;
+        }
+
+        final Batch batch = batches.get();
+        if (batchSize - batch.pos < size) {
+            random.nextBytes(batch.buf);
+            batch.pos = 0;
+            refills.increment();
+        }
+
+        System.arraycopy(batch.buf, batch.pos, bytes, 0, size);
+        Arrays.fill(batch.buf, batch.pos, batch.pos + size, (byte) 0);
+        batch.pos += size;
+
+        return bytes;
+    }
+
+    long getRefills() {
+        return refills.sum();
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    private static final class Batch {
+
+        private final byte[] buf;
+
+        // the buffer is empty initially and gets filled on first use
+        private int pos;
+
+        Batch(final int size) {
+            buf = new byte[size];
+            pos = size;
+        }
+
+    }
+
+}
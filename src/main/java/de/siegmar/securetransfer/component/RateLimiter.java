@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Token bucket rate limiter per key (e.g. client address).
+ *
+ * Each bucket is a single timestamp (the theoretical arrival time of the next request, see
+ * generic cell rate algorithm) that is updated lock-free. The number of tracked keys is
+ * bounded - buckets that have been idle long enough to be full again are evicted.
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LoadingCache<String, AtomicLong> buckets;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param permitsPerMinute the rate the bucket is refilled with
+     * @param burst the capacity of the bucket
+     * @param maxKeys the maximum number of tracked buckets
+     */
+    public RateLimiter(final int permitsPerMinute, final int burst, final long maxKeys) {
+        intervalNanos = TimeUnit.MINUTES.toNanos(1) / permitsPerMinute;
+        burstNanos = intervalNanos * burst;
+        buckets = CacheBuilder.newBuilder()
+            .maximumSize(maxKeys)
+            .expireAfterAccess(burstNanos, TimeUnit.NANOSECONDS)
+            .build(CacheLoader.from(() -> new AtomicLong(System.nanoTime())));
+    }
+
+    /**
+     * Tries to take a token from the bucket of the given key.
+     *
+     * @return 0 if a token was taken, the nanoseconds until the next token is available
+     *     otherwise
+     */
+    public long tryAcquire(final String key) {
+        final AtomicLong bucket = buckets.getUnchecked(key);
+        final long now = System.nanoTime();
+
+        while (true) {
+            final long arrival = bucket.get();
+            final long nextArrival = Math.max(arrival, now) + intervalNanos;
+            final long waitNanos = nextArrival - now - burstNanos;
+
+            if (waitNanos > 0) {
+                rejected.increment();
+                return waitNanos;
+            }
+
+            if (bucket.compareAndSet(arrival, nextArrival)) {
+                return 0;
+            }
+        }
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getTrackedKeys() {
+        return buckets.size();
+    }
+
+}
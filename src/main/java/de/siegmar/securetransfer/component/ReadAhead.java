@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads (and thereby decrypts) download streams ahead in a background thread - while the
+ * consumer writes one block to the client, the next blocks are read already.
+ *
+ * Every stream gets a ring of pooled buffers. The memory of all rings is limited - streams that
+ * can't get at least two buffers (double buffering) are read directly.
+ */
+public class ReadAhead {
+
+    private static final int MIN_BUFFERS = 2;
+
+    private final int blockSize;
+    private final int buffersPerStream;
+    private final int maxBuffers;
+    private final Semaphore memory;
+    private final BufferPool bufferPool;
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("read-ahead-%d").setDaemon(true).build());
+
+    private final LongAdder streams = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder readStallNanos = new LongAdder();
+    private final LongAdder writeStallNanos = new LongAdder();
+
+    /**
+     * @param blockSize the size of each buffer
+     * @param buffersPerStream the number of buffers per stream
+     * @param maxMemory the maximum memory (bytes) of all buffers
+     */
+    public ReadAhead(final int blockSize, final int buffersPerStream, final long maxMemory) {
+        if (buffersPerStream < MIN_BUFFERS) {
+            throw new IllegalArgumentException("At least " + MIN_BUFFERS
+                + " buffers per stream required");
+        }
+        this.blockSize = blockSize;
+        this.buffersPerStream = buffersPerStream;
+        maxBuffers = (int) Math.min(Integer.MAX_VALUE, maxMemory / blockSize);
+        memory = new Semaphore(maxBuffers);
+        bufferPool = new BufferPool(blockSize, Math.max(1, maxBuffers));
+    }
+
+    /**
+     * Wraps the given stream - the returned stream owns (and closes) it.
+     */
+    public InputStream wrap(final InputStream in) {
+        int buffers = buffersPerStream;
+        while (!memory.tryAcquire(buffers)) {
+            if (--buffers < MIN_BUFFERS) {
+                bypassed.increment();
+                return in;
+            }
+        }
+
+        streams.increment();
+        return new ReadAheadInputStream(this, in, buffers);
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    void release(final int buffers) {
+        memory.release(buffers);
+    }
+
+    void addReadNanos(final long nanos) {
+        readNanos.add(nanos);
+    }
+
+    void addReadStallNanos(final long nanos) {
+        readStallNanos.add(nanos);
+    }
+
+    void addWriteStallNanos(final long nanos) {
+        writeStallNanos.add(nanos);
+    }
+
+    public long getStreams() {
+        return streams.sum();
+    }
+
+    public long getBypassed() {
+        return bypassed.sum();
+    }
+
+    public long getMemoryUsed() {
+        return (long) (maxBuffers - memory.availablePermits()) * blockSize;
+    }
+
+    /**
+     * Time spent reading (and decrypting) the underlying streams.
+     */
+    public long getReadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readNanos.sum());
+    }
+
+    /**
+     * Time the read stage waited for a free buffer - the consumer (client) is too slow.
+     */
+    public long getReadStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(readStallNanos.sum());
+    }
+
+    /**
+     * Time the consumer waited for data - reading (and decrypting) is too slow.
+     */
+    public long getWriteStallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(writeStallNanos.sum());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
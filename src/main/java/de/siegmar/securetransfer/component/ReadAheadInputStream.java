@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Input stream backed by a ring of buffers that are filled by a background task.
+ *
+ * The buffers are wiped and returned to the pool once both - the background task and the
+ * consumer - are done.
+ */
+final class ReadAheadInputStream extends InputStream {
+
+    private static final Block EOF = new Block(null, -1, null);
+
+    private final ReadAhead readAhead;
+    private final InputStream in;
+    private final List<byte[]> buffers;
+    private final BlockingQueue<byte[]> free;
+    private final BlockingQueue<Block> filled;
+    private final AtomicInteger parties = new AtomicInteger(2);
+    private final Object producerLock = new Object();
+
+    private Thread producer;
+
+    private Block current;
+    private int pos;
+    private volatile boolean closed;
+
+    ReadAheadInputStream(final ReadAhead readAhead, final InputStream in, final int bufferCnt) {
+        this.readAhead = readAhead;
+        this.in = in;
+        buffers = new ArrayList<>(bufferCnt);
+        free = new ArrayBlockingQueue<>(bufferCnt);
+        for (int i = 0; i < bufferCnt; i++) {
+            final byte[] buf = readAhead.getBufferPool().acquire();
+            buffers.add(buf);
+            free.add(buf);
+        }
+
+        // one additional slot for the final EOF / error block
+        filled = new ArrayBlockingQueue<>(bufferCnt + 1);
+        readAhead.getExecutor().execute(this::produce);
+    }
+
+    private void produce() {
+        synchronized (producerLock) {
+            producer = Thread.currentThread();
+        }
+
+        Block last = new Block(null, -1, new IOException("Read ahead aborted"));
+        try {
+            while (!closed) {
+                final byte[] buf = takeFree();
+                final int len = fill(buf);
+                if (len > 0) {
+                    filled.add(new Block(buf, len, null));
+                }
+                if (len < buf.length) {
+                    last = EOF;
+                    break;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            last = new Block(null, -1, e);
+        } finally {
+            filled.add(last);
+            synchronized (producerLock) {
+                producer = null;
+                // clear an interrupt of close() before the thread is reused
+                Thread.interrupted();
+            }
+            closeSource();
+            done();
+        }
+    }
+
+    private byte[] takeFree() throws InterruptedException {
+        byte[] buf = free.poll();
+        if (buf == null) {
+            final long start = System.nanoTime();
+            buf = free.take();
+            readAhead.addReadStallNanos(System.nanoTime() - start);
+        }
+        return buf;
+    }
+
+    private int fill(final byte[] buf) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            int len = 0;
+            while (len < buf.length) {
+                final int read = in.read(buf, len, buf.length - len);
+                if (read == -1) {
+                    break;
+                }
+                len += read;
+            }
+            return len;
+        } finally {
+            readAhead.addReadNanos(System.nanoTime() - start);
+        }
+    }
+
+    private void closeSource() {
+        try {
+            in.close();
+        } catch (final IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : Byte.toUnsignedInt(b[0]);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        final Block block = currentBlock();
+        if (block == EOF) {
+            return -1;
+        }
+
+        final int cnt = Math.min(len, block.len - pos);
+        System.arraycopy(block.buf, pos, b, off, cnt);
+        pos += cnt;
+        return cnt;
+    }
+
+    private Block currentBlock() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        if (current != null && (current == EOF || pos < current.len)) {
+            return current;
+        }
+
+        if (current != null) {
+            free.add(current.buf);
+        }
+
+        current = takeFilled();
+        pos = 0;
+
+        if (current.error != null) {
+            throw new IOException("Read ahead failed", current.error);
+        }
+
+        return current;
+    }
+
+    private Block takeFilled() throws InterruptedIOException {
+        final Block block = filled.poll();
+        if (block != null) {
+            return block;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return filled.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            readAhead.addWriteStallNanos(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (producerLock) {
+            if (producer != null) {
+                producer.interrupt();
+            }
+        }
+        done();
+    }
+
+    private void done() {
+        if (parties.decrementAndGet() == 0) {
+            for (final byte[] buf : buffers) {
+                readAhead.getBufferPool().release(buf);
+            }
+            readAhead.release(buffers.size());
+        }
+    }
+
+    private static final class Block {
+
+        private final byte[] buf;
+        private final int len;
+        private final IOException error;
+
+        Block(final byte[] buf, final int len, final IOException error) {
+            this.buf = buf;
+            this.len = len;
+            this.error = error;
+        }
+
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.hash.Hashing;
+
+import de.siegmar.securetransfer.domain.KeyIv;
+
+/**
+ * En-/decrypts the segments of one file. Every segment is encrypted independently with
+ * AES/CBC and an IV derived from the file IV and the segment index. All segments but the last
+ * one have a fixed size (a multiple of the block size) and are encrypted without padding. The
+ * last segment (possibly empty) is PKCS5 padded.
+ */
+class SegmentCipher {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final String IV_DERIVATION_PREFIX = "securetransfer-segment";
+
+    private final CipherPool cipherPool;
+    private final CipherPool paddingCipherPool;
+    private final SecretKeySpec key;
+    private final byte[] fileIv;
+    private final int mode;
+
+    SegmentCipher(final CipherPool cipherPool, final CipherPool paddingCipherPool,
+                  final KeyIv keyIv, final int mode) {
+        this.cipherPool = cipherPool;
+        this.paddingCipherPool = paddingCipherPool;
+        key = new SecretKeySpec(keyIv.getKey(), "AES");
+        fileIv = keyIv.getIv();
+        this.mode = mode;
+    }
+
+    static int checkSegmentSize(final int segmentSize) {
+        if (segmentSize <= 0 || segmentSize % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Segment size " + segmentSize
+                + " must be a positive multiple of " + BLOCK_SIZE);
+        }
+        return segmentSize;
+    }
+
+    /**
+     * En-/decrypt the given segment into a new buffer. Processing in place would cause the JCE
+     * to copy the input internally.
+     */
+    Segment crypt(final Segment segment) {
+        final int len = segment.getLength();
+        return crypt(segment, new byte[mode == Cipher.ENCRYPT_MODE && segment.isLast()
+            ? len + BLOCK_SIZE - len % BLOCK_SIZE
+            : len]);
+    }
+
+    /**
+     * En-/decrypt the given segment into the given buffer. The buffer has to be at least one
+     * block larger than the segment.
+     */
+    Segment crypt(final Segment segment, final byte[] out) {
+        final CipherPool pool = segment.isLast() ? paddingCipherPool : cipherPool;
+        try (final CipherPool.PooledCipher cipher = pool.borrow()) {
+            cipher.init(mode, key, new IvParameterSpec(segmentIv(segment.getIndex())));
+
+            final int outLen = cipher.doFinal(segment.getData(), 0, segment.getLength(), out, 0);
+            return new Segment(segment.getIndex(), out, outLen, segment.isLast());
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    CompletableFuture<Segment> cryptAsync(final Segment segment, final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> crypt(segment), executor);
+    }
+
+    static <T> T await(final CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segment");
+        } catch (final ExecutionException e) {
+            throw new IOException("Error processing segment", e.getCause());
+        }
+    }
+
+    private byte[] segmentIv(final long index) {
+        return Arrays.copyOf(Hashing.sha256().newHasher()
+            .putString(IV_DERIVATION_PREFIX, StandardCharsets.UTF_8)
+            .putBytes(fileIv)
+            .putLong(index)
+            .hash().asBytes(), BLOCK_SIZE);
+    }
+
+    static final class Segment {
+
+        private final long index;
+        private final byte[] data;
+        private final int length;
+        private final boolean last;
+
+        Segment(final long index, final byte[] data, final int length, final boolean last) {
+            this.index = index;
+            this.data = data;
+            this.length = length;
+            this.last = last;
+        }
+
+        long getIndex() {
+            return index;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        boolean isLast() {
+            return last;
+        }
+
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Decrypts data written by {@link SegmentedCryptoOutputStream}. Segments are read ahead
+ * from the underlying stream and decrypted in parallel by the given executor.
+ *
+ * Segment buffers are taken from the given pool. Reading ahead is limited by permits shared
+ * by all streams - without a permit a stream only reads the segments it needs to continue.
+ *
+ * The underlying stream has to be positioned at the beginning of the first segment to read.
+ */
+class SegmentedCryptoInputStream extends InputStream {
+
+    private static final int BYTE_MASK = 0xff;
+
+    private final InputStream in;
+    private final SegmentCipher cipher;
+    private final Executor executor;
+    private final BufferPool bufferPool;
+    private final Semaphore readAheadPermits;
+    private final int segmentSize;
+    private final int maxPending;
+    private final Deque<PendingSegment> pending = new ArrayDeque<>();
+    private long segmentIndex;
+    private boolean eof;
+    private byte[] readBuf;
+    private int readLen;
+    private boolean readPermit;
+    private SegmentCipher.Segment current;
+    private boolean currentPermit;
+    private int pos;
+
+    @SuppressWarnings("checkstyle:parameternumber")
+    SegmentedCryptoInputStream(final InputStream in, final SegmentCipher cipher,
+                               final Executor executor, final BufferPool bufferPool,
+                               final Semaphore readAheadPermits, final int segmentSize,
+                               final int maxPending, final long firstSegment) {
+        this.in = in;
+        this.cipher = cipher;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.readAheadPermits = readAheadPermits;
+        this.segmentSize = SegmentCipher.checkSegmentSize(segmentSize);
+        this.maxPending = maxPending;
+        segmentIndex = firstSegment;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillCurrent()) {
+            return -1;
+        }
+        return current.getData()[pos++] & BYTE_MASK;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillCurrent()) {
+            return -1;
+        }
+
+        final int cnt = Math.min(len, current.getLength() - pos);
+        System.arraycopy(current.getData(), pos, b, off, cnt);
+        pos += cnt;
+        return cnt;
+    }
+
+    private boolean fillCurrent() throws IOException {
+        while (current == null || pos == current.getLength()) {
+            releaseCurrent();
+            readAhead();
+            if (pending.isEmpty()) {
+                return false;
+            }
+
+            final PendingSegment next = pending.remove();
+            try {
+                current = SegmentCipher.await(next.decrypted);
+            } catch (final IOException e) {
+                releasePermit(next.permit);
+                throw e;
+            }
+            currentPermit = next.permit;
+            pos = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reads and submits segments for decryption. One segment is read in advance as only the
+     * last segment (the one followed by EOF) has to be decrypted with padding.
+     */
+    private void readAhead() throws IOException {
+        if (readBuf == null && !eof) {
+            readSegment(true);
+            if (readBuf == null) {
+                throw new IOException("Missing final segment - data truncated");
+            }
+        }
+
+        while (readBuf != null && pending.size() < maxPending) {
+            final byte[] data = readBuf;
+            final int len = readLen;
+            final boolean permit = readPermit;
+
+            if (len < segmentSize) {
+                readBuf = null;
+            } else if (!readSegment(pending.isEmpty())) {
+                // no read-ahead permit available
+                break;
+            }
+
+            final boolean last = readBuf == null;
+            pending.add(new PendingSegment(
+                decrypt(new SegmentCipher.Segment(segmentIndex++, data, len, last)), permit));
+        }
+    }
+
+    /**
+     * Reads the next segment into {@link #readBuf} - unless it's not required to continue and
+     * no read-ahead permit is available.
+     *
+     * @return {@code false} if nothing has been read for lack of a permit
+     */
+    private boolean readSegment(final boolean required) throws IOException {
+        final boolean permit = readAheadPermits.tryAcquire();
+        if (!permit && !required) {
+            return false;
+        }
+
+        final byte[] buf = bufferPool.acquire();
+        final int len;
+        try {
+            len = ByteStreams.read(in, buf, 0, segmentSize);
+        } catch (final IOException e) {
+            bufferPool.release(buf);
+            releasePermit(permit);
+            throw e;
+        }
+
+        if (len < segmentSize) {
+            eof = true;
+        }
+        if (len == 0) {
+            bufferPool.release(buf);
+            releasePermit(permit);
+            readBuf = null;
+        } else {
+            readBuf = buf;
+            readLen = len;
+            readPermit = permit;
+        }
+        return true;
+    }
+
+    private CompletableFuture<SegmentCipher.Segment> decrypt(final SegmentCipher.Segment segment) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return cipher.crypt(segment, bufferPool.acquire());
+            } finally {
+                bufferPool.release(segment.getData());
+            }
+        }, executor);
+    }
+
+    private void releaseCurrent() {
+        if (current != null) {
+            bufferPool.release(current.getData());
+            releasePermit(currentPermit);
+            current = null;
+        }
+    }
+
+    private void releasePermit(final boolean permit) {
+        if (permit) {
+            readAheadPermits.release();
+        }
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.getLength() - pos;
+    }
+
+    /**
+     * Closes the underlying stream. Segments still being decrypted are finished in the
+     * background to return their buffers and permits.
+     */
+    @Override
+    public void close() throws IOException {
+        releaseCurrent();
+        for (final PendingSegment segment : pending) {
+            segment.decrypted.whenComplete((s, e) -> {
+                if (s != null) {
+                    bufferPool.release(s.getData());
+                }
+                releasePermit(segment.permit);
+            });
+        }
+        pending.clear();
+        if (readBuf != null) {
+            bufferPool.release(readBuf);
+            releasePermit(readPermit);
+            readBuf = null;
+        }
+        in.close();
+    }
+
+    private static final class PendingSegment {
+
+        private final CompletableFuture<SegmentCipher.Segment> decrypted;
+        private final boolean permit;
+
+        PendingSegment(final CompletableFuture<SegmentCipher.Segment> decrypted,
+                       final boolean permit) {
+            this.decrypted = decrypted;
+            this.permit = permit;
+        }
+
+    }
+
+}
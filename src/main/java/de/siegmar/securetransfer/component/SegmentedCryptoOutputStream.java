@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Encrypts the written data in segments of a fixed size. Writing is pipelined in three stages:
+ * the caller fills segment buffers, segments are encrypted in parallel by the crypt executor
+ * and written in order to the underlying stream by the write executor. The number of segments
+ * in flight is bounded per stream and across all streams (shared permits) - the caller blocks
+ * if encryption or writing can't keep up.
+ *
+ * Buffers for plaintext and ciphertext are taken from (and returned to) the given pool.
+ *
+ * An unfinished stream continues an existing encryption at the given segment and writes no
+ * final segment on close - the written data then has to end at a segment boundary.
+ */
+class SegmentedCryptoOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final SegmentCipher cipher;
+    private final Executor cryptExecutor;
+    private final Executor writeExecutor;
+    private final BufferPool bufferPool;
+    private final int segmentSize;
+    private final Semaphore inFlight;
+    private final Semaphore sharedPermits;
+    private final boolean finish;
+
+    // completes when all submitted segments have been written
+    private CompletableFuture<Void> writeChain = CompletableFuture.allOf();
+
+    private byte[] buf;
+    private int pos;
+    private long segmentIndex;
+    private boolean closed;
+
+    @SuppressWarnings("checkstyle:parameternumber")
+    SegmentedCryptoOutputStream(final OutputStream out, final SegmentCipher cipher,
+                                final Executor cryptExecutor, final Executor writeExecutor,
+                                final BufferPool bufferPool, final Semaphore sharedPermits,
+                                final int segmentSize, final int maxInFlight,
+                                final long firstSegment, final boolean finish) {
+        this.out = out;
+        this.cipher = cipher;
+        this.cryptExecutor = cryptExecutor;
+        this.writeExecutor = writeExecutor;
+        this.bufferPool = bufferPool;
+        this.segmentSize = SegmentCipher.checkSegmentSize(segmentSize);
+        inFlight = new Semaphore(maxInFlight);
+        this.sharedPermits = sharedPermits;
+        segmentIndex = firstSegment;
+        this.finish = finish;
+        buf = bufferPool.acquire();
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        int srcPos = off;
+        int remaining = len;
+        while (remaining > 0) {
+            final int cnt = Math.min(remaining, segmentSize - pos);
+            System.arraycopy(b, srcPos, buf, pos, cnt);
+            pos += cnt;
+            srcPos += cnt;
+            remaining -= cnt;
+
+            if (pos == segmentSize) {
+                submitSegment(false);
+                buf = bufferPool.acquire();
+                pos = 0;
+            }
+        }
+    }
+
+    private void submitSegment(final boolean last) throws IOException {
+        if (writeChain.isCompletedExceptionally()) {
+            SegmentCipher.await(writeChain);
+        }
+
+        try {
+            inFlight.acquire();
+            try {
+                sharedPermits.acquire();
+            } catch (final InterruptedException e) {
+                inFlight.release();
+                throw e;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for segment");
+        }
+
+        final byte[] plain = buf;
+        final SegmentCipher.Segment segment =
+            new SegmentCipher.Segment(segmentIndex++, plain, pos, last);
+
+        final CompletableFuture<SegmentCipher.Segment> encrypted =
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return cipher.crypt(segment, bufferPool.acquire());
+                } finally {
+                    bufferPool.release(plain);
+                }
+            }, cryptExecutor);
+
+        final CompletableFuture<Void> previous = writeChain;
+        writeChain = CompletableFuture.allOf(previous, encrypted)
+            .handleAsync((v, e) -> writeSegment(encrypted, e), writeExecutor);
+
+        // runs also if a previous segment failed and this one is skipped
+        writeChain.whenComplete((v, e) -> {
+            sharedPermits.release();
+            inFlight.release();
+        });
+    }
+
+    // runs once the segment is encrypted and all previous segments are written (or failed)
+    private Void writeSegment(final CompletableFuture<SegmentCipher.Segment> encrypted,
+                              final Throwable failure) {
+        final SegmentCipher.Segment segment =
+            encrypted.isCompletedExceptionally() ? null : encrypted.join();
+        try {
+            if (failure != null) {
+                throw failure instanceof CompletionException
+                    ? (CompletionException) failure : new CompletionException(failure);
+            }
+            out.write(segment.getData(), 0, segment.getLength());
+            return null;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            // also if the segment is skipped
+            if (segment != null) {
+                bufferPool.release(segment.getData());
+            }
+        }
+    }
+
+    /**
+     * Waits until all completely filled segments have been written to the underlying stream.
+     * A partially filled segment stays buffered until it is filled or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        SegmentCipher.await(writeChain);
+        out.flush();
+    }
+
+    /**
+     * Writes the final (padded) segment - unless the stream is unfinished - and closes the
+     * underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (finish) {
+                submitSegment(true);
+            } else {
+                bufferPool.release(buf);
+                if (pos > 0) {
+                    throw new IOException("Unfinished stream has to end at a segment boundary");
+                }
+            }
+            buf = null;
+        } finally {
+            // the underlying stream must not be closed while a segment is being written
+            writeChain.handle((v, e) -> null).join();
+            out.close();
+        }
+        SegmentCipher.await(writeChain);
+    }
+
+}
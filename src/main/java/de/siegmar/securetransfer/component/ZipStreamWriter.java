@@ -0,0 +1,290 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Writes a ZIP archive to a (non seekable) stream. Entries are stored (not compressed) and
+ * written in a single pass - the CRC is written in a data descriptor after the entry data.
+ * Zip64 extensions are used for entries, offsets and archives exceeding the ZIP limits.
+ *
+ * Archives with stored entries and data descriptors can be read by all common tools using the
+ * central directory, but not by {@link java.util.zip.ZipInputStream}.
+ */
+public class ZipStreamWriter {
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int END_SIG = 0x06054b50;
+
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    private static final short FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final short FLAG_UTF8 = 0x0800;
+    private static final short METHOD_STORED = 0;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+    private static final int HEADER_BUFFER_SIZE = 128;
+    private static final int ZIP64_END_SIZE = 44;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int DOS_EPOCH_YEAR = 1980;
+    private static final int DOS_DATE_SHIFT = 16;
+    private static final int DOS_YEAR_SHIFT = 9;
+    private static final int DOS_MONTH_SHIFT = 5;
+    private static final int DOS_HOUR_SHIFT = 11;
+    private static final int DOS_MINUTE_SHIFT = 5;
+
+    private final CountingOutputStream out;
+    private final List<Entry> entries = new ArrayList<>();
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final int dosTime;
+
+    public ZipStreamWriter(final OutputStream out) {
+        this.out = new CountingOutputStream(out);
+        dosTime = dosTime(LocalDateTime.now());
+    }
+
+    /**
+     * Writes an entry with exactly {@code size} bytes read from the given stream.
+     */
+    public void putEntry(final String name, final long size, final InputStream in)
+        throws IOException {
+
+        final Entry entry = new Entry(name.getBytes(StandardCharsets.UTF_8), size,
+            out.getCount());
+        entries.add(entry);
+
+        writeLocalHeader(entry);
+
+        final CRC32 crc = new CRC32();
+        long remaining = size;
+        while (remaining > 0) {
+            final int len = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (len < 0) {
+                throw new EOFException("Unexpected end of entry " + name + " - "
+                    + remaining + " bytes missing");
+            }
+            crc.update(buf, 0, len);
+            out.write(buf, 0, len);
+            remaining -= len;
+        }
+        entry.crc = crc.getValue();
+
+        writeDataDescriptor(entry);
+    }
+
+    /**
+     * Writes the central directory. The underlying stream is neither flushed nor closed.
+     */
+    public void finish() throws IOException {
+        final long centralOffset = out.getCount();
+        for (final Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        final long centralSize = out.getCount() - centralOffset;
+
+        final boolean zip64 = entries.size() >= MAX_16
+            || centralOffset >= MAX_32 || centralSize >= MAX_32;
+
+        if (zip64) {
+            writeZip64End(centralOffset, centralSize);
+        }
+
+        final ByteBuffer b = header();
+        b.putInt(END_SIG);
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putShort((short) Math.min(entries.size(), MAX_16));
+        b.putShort((short) Math.min(entries.size(), MAX_16));
+        b.putInt((int) Math.min(centralSize, MAX_32));
+        b.putInt((int) Math.min(centralOffset, MAX_32));
+        b.putShort((short) 0);
+        write(b);
+    }
+
+    private void writeLocalHeader(final Entry entry) throws IOException {
+        final ByteBuffer b = header(entry.name.length);
+        b.putInt(LOCAL_HEADER_SIG);
+        b.putShort(entry.isZip64() ? VERSION_ZIP64 : VERSION);
+        b.putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8));
+        b.putShort(METHOD_STORED);
+        b.putInt(dosTime);
+
+        // crc and sizes follow in the data descriptor
+        b.putInt(0);
+        b.putInt(entry.isZip64() ? (int) MAX_32 : 0);
+        b.putInt(entry.isZip64() ? (int) MAX_32 : 0);
+        b.putShort((short) entry.name.length);
+
+        if (entry.isZip64()) {
+            b.putShort((short) (Short.BYTES + Short.BYTES + Long.BYTES + Long.BYTES));
+            b.put(entry.name);
+            b.putShort(ZIP64_EXTRA_ID);
+            b.putShort((short) (Long.BYTES + Long.BYTES));
+            b.putLong(0);
+            b.putLong(0);
+        } else {
+            b.putShort((short) 0);
+            b.put(entry.name);
+        }
+
+        write(b);
+    }
+
+    private void writeDataDescriptor(final Entry entry) throws IOException {
+        final ByteBuffer b = header();
+        b.putInt(DATA_DESCRIPTOR_SIG);
+        b.putInt((int) entry.crc);
+        if (entry.isZip64()) {
+            b.putLong(entry.size);
+            b.putLong(entry.size);
+        } else {
+            b.putInt((int) entry.size);
+            b.putInt((int) entry.size);
+        }
+        write(b);
+    }
+
+    private void writeCentralHeader(final Entry entry) throws IOException {
+        final boolean zip64Size = entry.isZip64();
+        final boolean zip64Offset = entry.offset >= MAX_32;
+        final int extraSize = (zip64Size ? Long.BYTES + Long.BYTES : 0)
+            + (zip64Offset ? Long.BYTES : 0);
+
+        final ByteBuffer b = header(entry.name.length);
+        b.putInt(CENTRAL_HEADER_SIG);
+        b.putShort(VERSION_ZIP64);
+        b.putShort(extraSize > 0 ? VERSION_ZIP64 : VERSION);
+        b.putShort((short) (FLAG_DATA_DESCRIPTOR | FLAG_UTF8));
+        b.putShort(METHOD_STORED);
+        b.putInt(dosTime);
+        b.putInt((int) entry.crc);
+        b.putInt((int) Math.min(entry.size, MAX_32));
+        b.putInt((int) Math.min(entry.size, MAX_32));
+        b.putShort((short) entry.name.length);
+        b.putShort((short) (extraSize > 0 ? Short.BYTES + Short.BYTES + extraSize : 0));
+
+        // comment length, disk number, internal and external attributes
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putInt(0);
+
+        b.putInt((int) Math.min(entry.offset, MAX_32));
+        b.put(entry.name);
+
+        if (extraSize > 0) {
+            b.putShort(ZIP64_EXTRA_ID);
+            b.putShort((short) extraSize);
+            if (zip64Size) {
+                b.putLong(entry.size);
+                b.putLong(entry.size);
+            }
+            if (zip64Offset) {
+                b.putLong(entry.offset);
+            }
+        }
+
+        write(b);
+    }
+
+    private void writeZip64End(final long centralOffset, final long centralSize)
+        throws IOException {
+
+        final long zip64EndOffset = out.getCount();
+
+        final ByteBuffer b = header();
+        b.putInt(ZIP64_END_SIG);
+        b.putLong(ZIP64_END_SIZE);
+        b.putShort(VERSION_ZIP64);
+        b.putShort(VERSION_ZIP64);
+        b.putInt(0);
+        b.putInt(0);
+        b.putLong(entries.size());
+        b.putLong(entries.size());
+        b.putLong(centralSize);
+        b.putLong(centralOffset);
+
+        b.putInt(ZIP64_LOCATOR_SIG);
+        b.putInt(0);
+        b.putLong(zip64EndOffset);
+        b.putInt(1);
+        write(b);
+    }
+
+    private static ByteBuffer header() {
+        return header(0);
+    }
+
+    private static ByteBuffer header(final int nameLength) {
+        return ByteBuffer.allocate(HEADER_BUFFER_SIZE + nameLength)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(final ByteBuffer b) throws IOException {
+        out.write(b.array(), 0, b.position());
+    }
+
+    private static int dosTime(final LocalDateTime time) {
+        final int date = time.getYear() - DOS_EPOCH_YEAR << DOS_YEAR_SHIFT
+            | time.getMonthValue() << DOS_MONTH_SHIFT
+            | time.getDayOfMonth();
+        final int dayTime = time.getHour() << DOS_HOUR_SHIFT
+            | time.getMinute() << DOS_MINUTE_SHIFT
+            | time.getSecond() / 2;
+        return date << DOS_DATE_SHIFT | dayTime;
+    }
+
+    private static final class Entry {
+
+        private final byte[] name;
+        private final long size;
+        private final long offset;
+        private long crc;
+
+        Entry(final byte[] name, final long size, final long offset) {
+            this.name = name;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        boolean isZip64() {
+            return size >= MAX_32;
+        }
+
+    }
+
+}
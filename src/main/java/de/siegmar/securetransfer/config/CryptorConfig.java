@@ -16,17 +16,24 @@
 
 package de.siegmar.securetransfer.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import com.google.common.io.BaseEncoding;
 
+import de.siegmar.securetransfer.component.CipherBackend;
 import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.PasswordHasher;
+import de.siegmar.securetransfer.component.ReadAhead;
 
 @Configuration
 public class CryptorConfig {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CryptorConfig.class);
+
     private final SecureTransferConfiguration config;
 
     @Autowired
@@ -35,12 +42,43 @@ public class CryptorConfig {
     }
 
     @Bean
-    public Cryptor cryptor() {
+    public CipherBackend cipherBackend() {
+        final CipherBackend backend = CipherBackend.select(config.getCryptoBackend());
+
+        if (backend.getThroughput() < config.getCryptoMinThroughput()) {
+            final String msg = String.format(
+                "Crypto backend %s is slow: %d MB/s (minimum: %d MB/s)", backend.getProvider(),
+                Math.round(backend.getThroughput()), config.getCryptoMinThroughput());
+
+            if (config.isCryptoFailOnSlowBackend()) {
+                throw new IllegalStateException(msg);
+            }
+            LOG.warn(msg);
+        }
+
+        return backend;
+    }
+
+    @Bean
+    public Cryptor cryptor(final CipherBackend cipherBackend) {
         if (config.getSalt() != null) {
-            return new Cryptor(BaseEncoding.base16().lowerCase().decode(config.getSalt()));
+            return new Cryptor(BaseEncoding.base16().lowerCase().decode(config.getSalt()),
+                cipherBackend);
         }
 
-        return new Cryptor(config.getBaseDir());
+        return new Cryptor(config.getBaseDir(), cipherBackend);
+    }
+
+    @Bean
+    public PasswordHasher passwordHasher() {
+        return new PasswordHasher(config.getPasswordHashThreads(),
+            config.getPasswordHashQueueSize());
+    }
+
+    @Bean
+    public ReadAhead readAhead() {
+        return new ReadAhead(config.getDownloadReadAheadBlockSize(),
+            config.getDownloadReadAheadBuffers(), config.getDownloadReadAheadMemory());
     }
 
 }
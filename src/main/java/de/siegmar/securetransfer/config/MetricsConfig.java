@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
+import de.siegmar.securetransfer.component.CipherBackend;
+import de.siegmar.securetransfer.component.ConcurrencyLimiter;
+import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.DownloadExecutor;
+import de.siegmar.securetransfer.component.PasswordHasher;
+import de.siegmar.securetransfer.component.ReadAhead;
+import de.siegmar.securetransfer.controller.ReceiveRateLimitInterceptor;
+import de.siegmar.securetransfer.controller.RequestClass;
+import de.siegmar.securetransfer.controller.RequestClassFilter;
+import de.siegmar.securetransfer.domain.ReceiverMessage;
+import de.siegmar.securetransfer.domain.SenderMessage;
+import de.siegmar.securetransfer.repository.CachingMessageRepository;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
+import de.siegmar.securetransfer.repository.Reaper;
+
+/**
+ * Application specific metrics and info published via the actuator endpoints.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public PublicMetrics cipherBackendMetrics(final CipherBackend cipherBackend) {
+        return () -> Collections.singletonList(
+            new Metric<>("gauge.securetransfer.crypto.throughput",
+                Math.round(cipherBackend.getThroughput())));
+    }
+
+    @Bean
+    public InfoContributor cipherBackendInfo(final CipherBackend cipherBackend) {
+        return builder -> builder.withDetail("crypto", ImmutableMap.of(
+            "backend", cipherBackend.getProvider(),
+            "throughputMBs", Math.round(cipherBackend.getThroughput())));
+    }
+
+    @Bean
+    public PublicMetrics randomMetrics(final Cryptor cryptor) {
+        return () -> Arrays.asList(
+            new Metric<>("counter.securetransfer.random.refills", cryptor.getRandomRefills()),
+            new Metric<>("counter.securetransfer.random.refill.bytes",
+                cryptor.getRandomRefillBytes()));
+    }
+
+    @Bean
+    public PublicMetrics passwordHasherMetrics(final PasswordHasher passwordHasher) {
+        return () -> Arrays.asList(
+            new Metric<>("gauge.securetransfer.bcrypt.active", passwordHasher.getActiveCount()),
+            new Metric<>("gauge.securetransfer.bcrypt.queued", passwordHasher.getQueueDepth()),
+            new Metric<>("counter.securetransfer.bcrypt.completed",
+                passwordHasher.getCompletedCount()),
+            new Metric<>("counter.securetransfer.bcrypt.rejected",
+                passwordHasher.getRejectedCount()),
+            new Metric<>("counter.securetransfer.bcrypt.wait.millis",
+                passwordHasher.getWaitMillis()),
+            new Metric<>("counter.securetransfer.bcrypt.exec.millis",
+                passwordHasher.getExecMillis()));
+    }
+
+    @Bean
+    public PublicMetrics downloadMetrics(final DownloadExecutor downloadExecutor) {
+        return () -> Arrays.asList(
+            new Metric<>("gauge.securetransfer.download.active",
+                downloadExecutor.getActiveCount()),
+            new Metric<>("gauge.securetransfer.download.queued",
+                downloadExecutor.getQueueDepth()),
+            new Metric<>("counter.securetransfer.download.completed",
+                downloadExecutor.getCompletedCount()),
+            new Metric<>("counter.securetransfer.download.rejected",
+                downloadExecutor.getRejectedCount()));
+    }
+
+    @Bean
+    public PublicMetrics readAheadMetrics(final ReadAhead readAhead) {
+        return () -> Arrays.asList(
+            new Metric<>("counter.securetransfer.readahead.streams", readAhead.getStreams()),
+            new Metric<>("counter.securetransfer.readahead.bypassed", readAhead.getBypassed()),
+            new Metric<>("gauge.securetransfer.readahead.memory", readAhead.getMemoryUsed()),
+            new Metric<>("counter.securetransfer.readahead.read.millis",
+                readAhead.getReadMillis()),
+            new Metric<>("counter.securetransfer.readahead.read.stall.millis",
+                readAhead.getReadStallMillis()),
+            new Metric<>("counter.securetransfer.readahead.write.stall.millis",
+                readAhead.getWriteStallMillis()));
+    }
+
+    @Bean
+    public PublicMetrics messageCacheMetrics(
+        final CachingMessageRepository<SenderMessage> senderMessageRepository,
+        final CachingMessageRepository<ReceiverMessage> receiverMessageRepository) {
+
+        return () -> {
+            final List<Metric<?>> metrics = new ArrayList<>();
+            addCacheMetrics(metrics, "sender", senderMessageRepository);
+            addCacheMetrics(metrics, "receiver", receiverMessageRepository);
+            return metrics;
+        };
+    }
+
+    private static void addCacheMetrics(final List<Metric<?>> metrics, final String name,
+                                        final CachingMessageRepository<?> repository) {
+        final CacheStats stats = repository.getStats();
+        final String prefix = "securetransfer.messagecache." + name;
+        metrics.add(new Metric<>("counter." + prefix + ".hits", stats.hitCount()));
+        metrics.add(new Metric<>("counter." + prefix + ".misses", stats.missCount()));
+        metrics.add(new Metric<>("counter." + prefix + ".evictions", stats.evictionCount()));
+        metrics.add(new Metric<>("gauge." + prefix + ".size", repository.getSize()));
+    }
+
+    @Bean
+    public PublicMetrics expiryMetrics(final ExpiryScheduler expiryScheduler) {
+        return () -> Arrays.asList(
+            new Metric<>("gauge.securetransfer.expiry.pending", expiryScheduler.getPending()),
+            new Metric<>("counter.securetransfer.expiry.fired", expiryScheduler.getFired()));
+    }
+
+    @Bean
+    public PublicMetrics reaperMetrics(final Reaper reaper) {
+        return () -> Arrays.asList(
+            new Metric<>("gauge.securetransfer.reaper.backlog", reaper.getBacklog()),
+            new Metric<>("gauge.securetransfer.reaper.lag", reaper.getLagMillis()),
+            new Metric<>("counter.securetransfer.reaper.reclaimed.files",
+                reaper.getReclaimedFiles()),
+            new Metric<>("counter.securetransfer.reaper.reclaimed.bytes",
+                reaper.getReclaimedBytes()));
+    }
+
+    @Bean
+    public PublicMetrics requestClassMetrics(final RequestClassFilter requestClassFilter) {
+        return () -> {
+            final List<Metric<?>> metrics = new ArrayList<>();
+            for (final RequestClass requestClass : RequestClass.values()) {
+                final ConcurrencyLimiter limiter = requestClassFilter.getLimiter(requestClass);
+                final String name = requestClass.name().toLowerCase(Locale.ENGLISH);
+                metrics.add(new Metric<>("gauge.securetransfer.requests." + name + ".inflight",
+                    limiter.getInFlight()));
+                metrics.add(new Metric<>("counter.securetransfer.requests." + name + ".shed",
+                    limiter.getRejected()));
+            }
+            return metrics;
+        };
+    }
+
+    @Bean
+    public PublicMetrics receiveRateLimitMetrics(final ReceiveRateLimitInterceptor interceptor) {
+        return () -> Arrays.asList(
+            new Metric<>("counter.securetransfer.ratelimit.client.rejected",
+                interceptor.getClientLimiter().getRejected()),
+            new Metric<>("gauge.securetransfer.ratelimit.client.tracked",
+                interceptor.getClientLimiter().getTrackedKeys()),
+            new Metric<>("counter.securetransfer.ratelimit.message.rejected",
+                interceptor.getMessageLimiter().getRejected()),
+            new Metric<>("gauge.securetransfer.ratelimit.message.tracked",
+                interceptor.getMessageLimiter().getTrackedKeys()));
+    }
+
+}
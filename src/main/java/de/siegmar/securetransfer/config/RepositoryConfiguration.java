@@ -17,16 +17,22 @@
 package de.siegmar.securetransfer.config;
 
 import java.io.IOException;
+import java.time.Duration;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 import de.siegmar.securetransfer.component.Cryptor;
 import de.siegmar.securetransfer.domain.ReceiverMessage;
 import de.siegmar.securetransfer.domain.SenderMessage;
+import de.siegmar.securetransfer.repository.CachingMessageRepository;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
 import de.siegmar.securetransfer.repository.FileRepository;
 import de.siegmar.securetransfer.repository.MessageRepository;
+import de.siegmar.securetransfer.repository.Reaper;
+import de.siegmar.securetransfer.repository.disk.BinaryMessageCodec;
 import de.siegmar.securetransfer.repository.disk.FileDiskRepository;
 import de.siegmar.securetransfer.repository.disk.ReceiverMessageDiskRepository;
 import de.siegmar.securetransfer.repository.disk.SenderMessageDiskRepository;
@@ -34,6 +40,7 @@ import de.siegmar.securetransfer.repository.memory.FileMemoryRepository;
 import de.siegmar.securetransfer.repository.memory.MemoryMessageRepository;
 
 @Configuration
+@SuppressWarnings("checkstyle:classdataabstractioncoupling")
 public class RepositoryConfiguration {
 
     private final SecureTransferConfiguration config;
@@ -46,12 +53,24 @@ public class RepositoryConfiguration {
         this.cryptor = cryptor;
     }
 
+    @Bean
+    public ExpiryScheduler expiryScheduler() {
+        return new ExpiryScheduler();
+    }
+
+    @Bean
+    public Reaper reaper() {
+        return new Reaper(config.getReaperFilesPerSecond(), config.getReaperBytesPerSecond(),
+            config.getReaperBatchSize());
+    }
+
     @Bean
     public MessageRepository<SenderMessage> senderMessageRepository() throws IOException {
         final String messageRepository = config.getMessageRepository();
         switch (messageRepository) {
             case "disk":
-                return new SenderMessageDiskRepository(config.getBaseDir());
+                return new SenderMessageDiskRepository(config.getBaseDir(),
+                    config.getMessageFormat(), expiryScheduler(), reaper());
             case "memory":
                 return new MemoryMessageRepository<>();
             default:
@@ -65,7 +84,8 @@ public class RepositoryConfiguration {
         final String messageRepository = config.getMessageRepository();
         switch (messageRepository) {
             case "disk":
-                return new ReceiverMessageDiskRepository(config.getBaseDir());
+                return new ReceiverMessageDiskRepository(config.getBaseDir(),
+                    config.getMessageFormat(), expiryScheduler(), reaper());
             case "memory":
                 return new MemoryMessageRepository<>();
             default:
@@ -74,14 +94,36 @@ public class RepositoryConfiguration {
         }
     }
 
+    @Bean
+    @Primary
+    public CachingMessageRepository<SenderMessage> cachedSenderMessageRepository()
+        throws IOException {
+        return new CachingMessageRepository<>(senderMessageRepository(),
+            BinaryMessageCodec.sender(), config.getMessageCacheMemory(),
+            Duration.ofSeconds(config.getMessageCacheTtlSeconds()));
+    }
+
+    @Bean
+    @Primary
+    public CachingMessageRepository<ReceiverMessage> cachedReceiverMessageRepository()
+        throws IOException {
+        return new CachingMessageRepository<>(receiverMessageRepository(),
+            BinaryMessageCodec.receiver(), config.getMessageCacheMemory(),
+            Duration.ofSeconds(config.getMessageCacheTtlSeconds()));
+    }
+
     @Bean
     public FileRepository fileRepositoy() throws IOException {
         final String fileRepository = config.getFileRepository();
         switch (fileRepository) {
             case "disk":
-                return new FileDiskRepository(config.getBaseDir(), cryptor);
+                return new FileDiskRepository(config.getBaseDir(), cryptor,
+                    config.getStorageFormat(), config.getFileCompression(),
+                    config.getFileMetadataFormat(), config.isFileMetadataLazy(),
+                    config.getFileMetadataCacheSize(), expiryScheduler(), reaper());
             case "memory":
-                return new FileMemoryRepository(cryptor);
+                return new FileMemoryRepository(cryptor, config.getStorageFormat(),
+                    config.getFileCompression(), expiryScheduler());
             default:
                 throw new IllegalStateException("Unknown file repository configured: "
                     + fileRepository);
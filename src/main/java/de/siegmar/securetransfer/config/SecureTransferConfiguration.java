@@ -24,6 +24,8 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermissions;
 
 import javax.annotation.PostConstruct;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import org.slf4j.Logger;
@@ -32,6 +34,11 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 
+import de.siegmar.securetransfer.component.CipherBackendMode;
+import de.siegmar.securetransfer.domain.Compression;
+import de.siegmar.securetransfer.domain.MetadataFormat;
+import de.siegmar.securetransfer.domain.StorageFormat;
+
 @Component
 @ConfigurationProperties(prefix = "securetransfer")
 @Validated
@@ -39,6 +46,36 @@ public class SecureTransferConfiguration {
 
     private static final Logger LOG = LoggerFactory.getLogger(SecureTransferConfiguration.class);
 
+    private static final int DEFAULT_PASSWORD_HASH_QUEUE_SIZE = 32;
+    private static final int DEFAULT_CLIENT_RATE = 60;
+    private static final int DEFAULT_CLIENT_BURST = 20;
+    private static final int DEFAULT_MESSAGE_RATE = 10;
+    private static final int DEFAULT_MESSAGE_BURST = 5;
+    private static final int DEFAULT_MAX_TRACKED_KEYS = 100_000;
+    private static final int DEFAULT_CRYPTO_MIN_THROUGHPUT = 100;
+    private static final int DEFAULT_UPLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_TIMEOUT_MINUTES = 60;
+    private static final int DEFAULT_DOWNLOAD_THREADS = 16;
+    private static final int DEFAULT_DOWNLOAD_QUEUE_SIZE = 64;
+    private static final int DEFAULT_DOWNLOAD_READ_AHEAD_BLOCK_SIZE = 256 * 1024;
+    private static final int DEFAULT_DOWNLOAD_READ_AHEAD_BUFFERS = 4;
+    private static final int DOWNLOAD_READ_AHEAD_HEAP_FRACTION = 16;
+    private static final long DEFAULT_DOWNLOAD_READ_AHEAD_MEMORY =
+        Runtime.getRuntime().maxMemory() / DOWNLOAD_READ_AHEAD_HEAP_FRACTION;
+    private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS =
+        DEFAULT_DOWNLOAD_THREADS + DEFAULT_DOWNLOAD_QUEUE_SIZE;
+    private static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 16;
+    private static final int DEFAULT_MAX_CONCURRENT_PAGES = 100;
+    private static final int DEFAULT_MAX_CONCURRENT_PASSWORD_CHECKS = 32;
+    private static final int MESSAGE_CACHE_HEAP_FRACTION = 32;
+    private static final long DEFAULT_MESSAGE_CACHE_MEMORY =
+        Runtime.getRuntime().maxMemory() / MESSAGE_CACHE_HEAP_FRACTION;
+    private static final int DEFAULT_FILE_METADATA_CACHE_SIZE = 1000;
+    private static final int DEFAULT_MESSAGE_CACHE_TTL_SECONDS = 300;
+    private static final int DEFAULT_REAPER_FILES_PER_SECOND = 100;
+    private static final long DEFAULT_REAPER_BYTES_PER_SECOND = 256L * 1024 * 1024;
+    private static final int DEFAULT_REAPER_BATCH_SIZE = 20;
+
     @NotNull
     private Path baseDir =
         Paths.get(System.getProperty("java.io.tmpdir")).resolve("securetransfer");
@@ -52,11 +89,97 @@ public class SecureTransferConfiguration {
     @NotNull
     private String messageRepository;
 
+    @Min(0)
+    private long messageCacheMemory = DEFAULT_MESSAGE_CACHE_MEMORY;
+
+    @Min(1)
+    private int messageCacheTtlSeconds = DEFAULT_MESSAGE_CACHE_TTL_SECONDS;
+
     @NotNull
     private String fileRepository;
 
     private String salt;
 
+    @NotNull
+    private StorageFormat storageFormat = StorageFormat.CBC_SEGMENTED;
+
+    @NotNull
+    private Compression fileCompression = Compression.NONE;
+
+    @NotNull
+    private MetadataFormat messageFormat = MetadataFormat.BINARY;
+
+    @NotNull
+    private MetadataFormat fileMetadataFormat = MetadataFormat.BINARY;
+
+    private boolean fileMetadataLazy;
+
+    @Min(1)
+    private int fileMetadataCacheSize = DEFAULT_FILE_METADATA_CACHE_SIZE;
+
+    @Min(0)
+    private int reaperFilesPerSecond = DEFAULT_REAPER_FILES_PER_SECOND;
+
+    @Min(0)
+    private long reaperBytesPerSecond = DEFAULT_REAPER_BYTES_PER_SECOND;
+
+    @Min(1)
+    private int reaperBatchSize = DEFAULT_REAPER_BATCH_SIZE;
+
+    @NotNull
+    private CipherBackendMode cryptoBackend = CipherBackendMode.AUTO;
+
+    @Min(0)
+    private int cryptoMinThroughput = DEFAULT_CRYPTO_MIN_THROUGHPUT;
+
+    private boolean cryptoFailOnSlowBackend;
+
+    @Min(1)
+    private int passwordHashThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    @Min(1)
+    private int passwordHashQueueSize = DEFAULT_PASSWORD_HASH_QUEUE_SIZE;
+
+    @Valid
+    private final RateLimit receiveRateLimit = new RateLimit();
+
+    @Min(1)
+    private int uploadChunkSize = DEFAULT_UPLOAD_CHUNK_SIZE;
+
+    @Min(1)
+    private int uploadTimeoutMinutes = DEFAULT_UPLOAD_TIMEOUT_MINUTES;
+
+    @Min(1)
+    private int downloadThreads = DEFAULT_DOWNLOAD_THREADS;
+
+    @Min(1)
+    private int downloadQueueSize = DEFAULT_DOWNLOAD_QUEUE_SIZE;
+
+    private boolean downloadVirtualThreads;
+
+    private boolean nonBlockingDownloads;
+
+    @Min(1)
+    private int downloadReadAheadBlockSize = DEFAULT_DOWNLOAD_READ_AHEAD_BLOCK_SIZE;
+
+    @Min(2)
+    private int downloadReadAheadBuffers = DEFAULT_DOWNLOAD_READ_AHEAD_BUFFERS;
+
+    @Min(0)
+    private long downloadReadAheadMemory = DEFAULT_DOWNLOAD_READ_AHEAD_MEMORY;
+
+    @Min(1)
+    private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+
+    @Min(1)
+    private int maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+
+    @Min(1)
+    private int maxConcurrentPages = DEFAULT_MAX_CONCURRENT_PAGES;
+
+    @Min(1)
+    private int maxConcurrentPasswordChecks = DEFAULT_MAX_CONCURRENT_PASSWORD_CHECKS;
+
     public Path getBaseDir() {
         return baseDir;
     }
@@ -97,6 +220,22 @@ public class SecureTransferConfiguration {
         this.messageRepository = messageRepository;
     }
 
+    public long getMessageCacheMemory() {
+        return messageCacheMemory;
+    }
+
+    public void setMessageCacheMemory(final long messageCacheMemory) {
+        this.messageCacheMemory = messageCacheMemory;
+    }
+
+    public int getMessageCacheTtlSeconds() {
+        return messageCacheTtlSeconds;
+    }
+
+    public void setMessageCacheTtlSeconds(final int messageCacheTtlSeconds) {
+        this.messageCacheTtlSeconds = messageCacheTtlSeconds;
+    }
+
     public String getFileRepository() {
         return fileRepository;
     }
@@ -113,6 +252,226 @@ public class SecureTransferConfiguration {
         this.salt = salt;
     }
 
+    public StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    public void setStorageFormat(final StorageFormat storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public Compression getFileCompression() {
+        return fileCompression;
+    }
+
+    public void setFileCompression(final Compression fileCompression) {
+        this.fileCompression = fileCompression;
+    }
+
+    public MetadataFormat getMessageFormat() {
+        return messageFormat;
+    }
+
+    public void setMessageFormat(final MetadataFormat messageFormat) {
+        this.messageFormat = messageFormat;
+    }
+
+    public MetadataFormat getFileMetadataFormat() {
+        return fileMetadataFormat;
+    }
+
+    public void setFileMetadataFormat(final MetadataFormat fileMetadataFormat) {
+        this.fileMetadataFormat = fileMetadataFormat;
+    }
+
+    public boolean isFileMetadataLazy() {
+        return fileMetadataLazy;
+    }
+
+    public void setFileMetadataLazy(final boolean fileMetadataLazy) {
+        this.fileMetadataLazy = fileMetadataLazy;
+    }
+
+    public int getFileMetadataCacheSize() {
+        return fileMetadataCacheSize;
+    }
+
+    public void setFileMetadataCacheSize(final int fileMetadataCacheSize) {
+        this.fileMetadataCacheSize = fileMetadataCacheSize;
+    }
+
+    public int getReaperFilesPerSecond() {
+        return reaperFilesPerSecond;
+    }
+
+    public void setReaperFilesPerSecond(final int reaperFilesPerSecond) {
+        this.reaperFilesPerSecond = reaperFilesPerSecond;
+    }
+
+    public long getReaperBytesPerSecond() {
+        return reaperBytesPerSecond;
+    }
+
+    public void setReaperBytesPerSecond(final long reaperBytesPerSecond) {
+        this.reaperBytesPerSecond = reaperBytesPerSecond;
+    }
+
+    public int getReaperBatchSize() {
+        return reaperBatchSize;
+    }
+
+    public void setReaperBatchSize(final int reaperBatchSize) {
+        this.reaperBatchSize = reaperBatchSize;
+    }
+
+    public CipherBackendMode getCryptoBackend() {
+        return cryptoBackend;
+    }
+
+    public void setCryptoBackend(final CipherBackendMode cryptoBackend) {
+        this.cryptoBackend = cryptoBackend;
+    }
+
+    public int getCryptoMinThroughput() {
+        return cryptoMinThroughput;
+    }
+
+    public void setCryptoMinThroughput(final int cryptoMinThroughput) {
+        this.cryptoMinThroughput = cryptoMinThroughput;
+    }
+
+    public boolean isCryptoFailOnSlowBackend() {
+        return cryptoFailOnSlowBackend;
+    }
+
+    public void setCryptoFailOnSlowBackend(final boolean cryptoFailOnSlowBackend) {
+        this.cryptoFailOnSlowBackend = cryptoFailOnSlowBackend;
+    }
+
+    public int getPasswordHashThreads() {
+        return passwordHashThreads;
+    }
+
+    public void setPasswordHashThreads(final int passwordHashThreads) {
+        this.passwordHashThreads = passwordHashThreads;
+    }
+
+    public int getPasswordHashQueueSize() {
+        return passwordHashQueueSize;
+    }
+
+    public void setPasswordHashQueueSize(final int passwordHashQueueSize) {
+        this.passwordHashQueueSize = passwordHashQueueSize;
+    }
+
+    public RateLimit getReceiveRateLimit() {
+        return receiveRateLimit;
+    }
+
+    public int getUploadChunkSize() {
+        return uploadChunkSize;
+    }
+
+    public void setUploadChunkSize(final int uploadChunkSize) {
+        this.uploadChunkSize = uploadChunkSize;
+    }
+
+    public int getUploadTimeoutMinutes() {
+        return uploadTimeoutMinutes;
+    }
+
+    public void setUploadTimeoutMinutes(final int uploadTimeoutMinutes) {
+        this.uploadTimeoutMinutes = uploadTimeoutMinutes;
+    }
+
+    public int getDownloadThreads() {
+        return downloadThreads;
+    }
+
+    public void setDownloadThreads(final int downloadThreads) {
+        this.downloadThreads = downloadThreads;
+    }
+
+    public int getDownloadQueueSize() {
+        return downloadQueueSize;
+    }
+
+    public void setDownloadQueueSize(final int downloadQueueSize) {
+        this.downloadQueueSize = downloadQueueSize;
+    }
+
+    public boolean isDownloadVirtualThreads() {
+        return downloadVirtualThreads;
+    }
+
+    public void setDownloadVirtualThreads(final boolean downloadVirtualThreads) {
+        this.downloadVirtualThreads = downloadVirtualThreads;
+    }
+
+    public boolean isNonBlockingDownloads() {
+        return nonBlockingDownloads;
+    }
+
+    public void setNonBlockingDownloads(final boolean nonBlockingDownloads) {
+        this.nonBlockingDownloads = nonBlockingDownloads;
+    }
+
+    public int getDownloadReadAheadBlockSize() {
+        return downloadReadAheadBlockSize;
+    }
+
+    public void setDownloadReadAheadBlockSize(final int downloadReadAheadBlockSize) {
+        this.downloadReadAheadBlockSize = downloadReadAheadBlockSize;
+    }
+
+    public int getDownloadReadAheadBuffers() {
+        return downloadReadAheadBuffers;
+    }
+
+    public void setDownloadReadAheadBuffers(final int downloadReadAheadBuffers) {
+        this.downloadReadAheadBuffers = downloadReadAheadBuffers;
+    }
+
+    public long getDownloadReadAheadMemory() {
+        return downloadReadAheadMemory;
+    }
+
+    public void setDownloadReadAheadMemory(final long downloadReadAheadMemory) {
+        this.downloadReadAheadMemory = downloadReadAheadMemory;
+    }
+
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads;
+    }
+
+    public void setMaxConcurrentDownloads(final int maxConcurrentDownloads) {
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+    }
+
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads;
+    }
+
+    public void setMaxConcurrentUploads(final int maxConcurrentUploads) {
+        this.maxConcurrentUploads = maxConcurrentUploads;
+    }
+
+    public int getMaxConcurrentPages() {
+        return maxConcurrentPages;
+    }
+
+    public void setMaxConcurrentPages(final int maxConcurrentPages) {
+        this.maxConcurrentPages = maxConcurrentPages;
+    }
+
+    public int getMaxConcurrentPasswordChecks() {
+        return maxConcurrentPasswordChecks;
+    }
+
+    public void setMaxConcurrentPasswordChecks(final int maxConcurrentPasswordChecks) {
+        this.maxConcurrentPasswordChecks = maxConcurrentPasswordChecks;
+    }
+
     @PostConstruct
     public void init() {
         if (!createBaseDir) {
@@ -133,4 +492,67 @@ public class SecureTransferConfiguration {
         }
     }
 
+    /**
+     * Token bucket limits (requests per minute and burst size) per client address and per
+     * message.
+     */
+    public static class RateLimit {
+
+        @Min(1)
+        private int clientRate = DEFAULT_CLIENT_RATE;
+
+        @Min(1)
+        private int clientBurst = DEFAULT_CLIENT_BURST;
+
+        @Min(1)
+        private int messageRate = DEFAULT_MESSAGE_RATE;
+
+        @Min(1)
+        private int messageBurst = DEFAULT_MESSAGE_BURST;
+
+        @Min(1)
+        private long maxTrackedKeys = DEFAULT_MAX_TRACKED_KEYS;
+
+        public int getClientRate() {
+            return clientRate;
+        }
+
+        public void setClientRate(final int clientRate) {
+            this.clientRate = clientRate;
+        }
+
+        public int getClientBurst() {
+            return clientBurst;
+        }
+
+        public void setClientBurst(final int clientBurst) {
+            this.clientBurst = clientBurst;
+        }
+
+        public int getMessageRate() {
+            return messageRate;
+        }
+
+        public void setMessageRate(final int messageRate) {
+            this.messageRate = messageRate;
+        }
+
+        public int getMessageBurst() {
+            return messageBurst;
+        }
+
+        public void setMessageBurst(final int messageBurst) {
+            this.messageBurst = messageBurst;
+        }
+
+        public long getMaxTrackedKeys() {
+            return maxTrackedKeys;
+        }
+
+        public void setMaxTrackedKeys(final long maxTrackedKeys) {
+            this.maxTrackedKeys = maxTrackedKeys;
+        }
+
+    }
+
 }
@@ -18,25 +18,84 @@ package de.siegmar.securetransfer.config;
 
 import java.util.Locale;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.Ordered;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 import org.springframework.web.servlet.i18n.SessionLocaleResolver;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import de.siegmar.securetransfer.component.ConcurrencyLimiter;
+import de.siegmar.securetransfer.component.DownloadExecutor;
+import de.siegmar.securetransfer.component.RateLimiter;
+import de.siegmar.securetransfer.controller.ReceiveRateLimitInterceptor;
+import de.siegmar.securetransfer.controller.RequestClass;
+import de.siegmar.securetransfer.controller.RequestClassFilter;
+
 @Configuration
 public class WebConfig extends WebMvcConfigurerAdapter {
 
-    private static final int DOWNLOAD_QUEUE_SIZE = 50;
+    private static final Logger LOG = LoggerFactory.getLogger(WebConfig.class);
+
+    private final SecureTransferConfiguration config;
+
+    @Autowired
+    public WebConfig(final SecureTransferConfiguration config) {
+        this.config = config;
+    }
 
     @Override
     public void addViewControllers(final ViewControllerRegistry registry) {
         registry.addRedirectViewController("/", "/send");
     }
 
+    @Bean
+    public ReceiveRateLimitInterceptor receiveRateLimitInterceptor() {
+        final SecureTransferConfiguration.RateLimit rateLimit = config.getReceiveRateLimit();
+        return new ReceiveRateLimitInterceptor(
+            new RateLimiter(rateLimit.getClientRate(), rateLimit.getClientBurst(),
+                rateLimit.getMaxTrackedKeys()),
+            new RateLimiter(rateLimit.getMessageRate(), rateLimit.getMessageBurst(),
+                rateLimit.getMaxTrackedKeys()));
+    }
+
+    @Bean
+    public RequestClassFilter requestClassFilter() {
+        return new RequestClassFilter(Maps.immutableEnumMap(ImmutableMap.of(
+            RequestClass.INTERACTIVE, new ConcurrencyLimiter(config.getMaxConcurrentPages()),
+            RequestClass.PASSWORD,
+            new ConcurrencyLimiter(config.getMaxConcurrentPasswordChecks()),
+            RequestClass.UPLOAD, new ConcurrencyLimiter(config.getMaxConcurrentUploads()),
+            RequestClass.DOWNLOAD, new ConcurrencyLimiter(config.getMaxConcurrentDownloads()))));
+    }
+
+    // before any filter parses the request parameters (multipart uploads)
+    @Bean
+    public FilterRegistrationBean requestClassFilterRegistration() {
+        final FilterRegistrationBean registration =
+            new FilterRegistrationBean(requestClassFilter());
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+
+    @Override
+    public void addInterceptors(final InterceptorRegistry registry) {
+        // message retrieval and password validation - not file downloads
+        registry.addInterceptor(receiveRateLimitInterceptor())
+            .addPathPatterns("/receive/*", "/receive/confirm/*", "/receive/password/*");
+    }
+
     // english only for now
     @Bean
     public LocaleResolver localeResolver() {
@@ -45,15 +104,31 @@ public class WebConfig extends WebMvcConfigurerAdapter {
         return sessionLocaleResolver;
     }
 
+    @Bean
+    public DownloadExecutor downloadExecutor() {
+        if (config.isDownloadVirtualThreads()) {
+            LOG.info("Use virtual threads for downloads");
+            return DownloadExecutor.virtualThreads();
+        }
+
+        LOG.info("Use {} threads for downloads (queue size: {})",
+            config.getDownloadThreads(), config.getDownloadQueueSize());
+
+        final int capacity = config.getDownloadThreads() + config.getDownloadQueueSize();
+        if (config.getMaxConcurrentDownloads() > capacity) {
+            LOG.warn("Max concurrent downloads ({}) exceed download threads and queue size ({})"
+                + " - downloads will be rejected by the executor",
+                config.getMaxConcurrentDownloads(), capacity);
+        }
+
+        return DownloadExecutor.threadPool(config.getDownloadThreads(),
+            config.getDownloadQueueSize());
+    }
+
+    // file downloads (StreamingResponseBody)
     @Override
     public void configureAsyncSupport(final AsyncSupportConfigurer configurer) {
-        final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(2);
-        executor.setQueueCapacity(DOWNLOAD_QUEUE_SIZE);
-        executor.setThreadNamePrefix("AsyncTaskExecutor-");
-        executor.initialize();
-        configurer.setTaskExecutor(executor);
+        configurer.setTaskExecutor(new TaskExecutorAdapter(downloadExecutor()));
     }
 
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.controller;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Byte ranges of a file that have been delivered completely. Overlapping and adjacent ranges
+ * are merged.
+ */
+final class DeliveredRanges implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // start (inclusive) -> end (exclusive)
+    private final NavigableMap<Long, Long> ranges = new TreeMap<>();
+
+    synchronized void add(final long start, final long end) {
+        long mergedStart = start;
+        long mergedEnd = end;
+
+        final Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start) {
+            mergedStart = floor.getKey();
+            mergedEnd = Math.max(mergedEnd, floor.getValue());
+        }
+
+        for (final Iterator<Long> it =
+             ranges.subMap(mergedStart, true, mergedEnd, true).values().iterator();
+             it.hasNext();) {
+            mergedEnd = Math.max(mergedEnd, it.next());
+            it.remove();
+        }
+
+        ranges.put(mergedStart, mergedEnd);
+    }
+
+    synchronized boolean covers(final long length) {
+        if (length == 0) {
+            return true;
+        }
+
+        final Map.Entry<Long, Long> first = ranges.firstEntry();
+        return first != null && first.getKey() == 0 && first.getValue() >= length;
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.controller;
+
+import java.io.InputStream;
+import java.util.function.Supplier;
+
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Body of a file download - the content and a callback invoked after the content has been
+ * written completely.
+ */
+final class FileDownloadBody {
+
+    private final Supplier<InputStream> content;
+    private final long length;
+    private final Runnable onDelivered;
+
+    FileDownloadBody(final Supplier<InputStream> content, final long length,
+                     final Runnable onDelivered) {
+        this.content = content;
+        this.length = length;
+        this.onDelivered = onDelivered;
+    }
+
+    InputStream open() {
+        return ByteStreams.limit(content.get(), length);
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    void delivered() {
+        onDelivered.run();
+    }
+
+    /**
+     * Blocking variant - the content is copied by a thread of the download executor.
+     */
+    StreamingResponseBody toStreamingResponseBody() {
+        return out -> {
+            try (final InputStream in = open()) {
+                ByteStreams.copy(in, out);
+                out.flush();
+            }
+
+            delivered();
+        };
+    }
+
+}
@@ -16,7 +16,10 @@
 
 package de.siegmar.securetransfer.controller;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.beans.propertyeditors.StringTrimmerEditor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -25,6 +28,7 @@ import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 import de.siegmar.securetransfer.service.MessageNotFoundException;
+import de.siegmar.securetransfer.service.ServiceUnavailableException;
 
 @ControllerAdvice
 public class GlobalControllerAdvice {
@@ -40,4 +44,12 @@ public class GlobalControllerAdvice {
         return "message_not_found";
     }
 
+    @ExceptionHandler(ServiceUnavailableException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String serviceUnavailable(final ServiceUnavailableException e,
+                                     final HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        return "service_unavailable";
+    }
+
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Writes a file download using Servlet 3.1 non-blocking I/O. Content is only read (and
+ * decrypted) when the connection is able to take more data - no thread waits for slow clients.
+ */
+final class NonBlockingFileWriter implements WriteListener, AsyncListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NonBlockingFileWriter.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream out;
+    private final FileDownloadBody body;
+    private final InputStream in;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private long remaining;
+    private boolean flushed;
+
+    private NonBlockingFileWriter(final AsyncContext asyncContext, final ServletOutputStream out,
+                                  final FileDownloadBody body, final InputStream in) {
+        this.asyncContext = asyncContext;
+        this.out = out;
+        this.body = body;
+        this.in = in;
+        remaining = body.getLength();
+    }
+
+    /**
+     * Starts the asynchronous download. Status and headers have to be set already.
+     *
+     * @param timeout the timeout (in milliseconds) of the download - the container default if
+     *     {@code null}
+     */
+    static void start(final HttpServletRequest request, final HttpServletResponse response,
+                      final FileDownloadBody body, final Long timeout) throws IOException {
+
+        final InputStream in = body.open();
+        try {
+            final AsyncContext asyncContext = request.startAsync();
+            if (timeout != null) {
+                asyncContext.setTimeout(timeout);
+            }
+
+            final ServletOutputStream out = response.getOutputStream();
+            final NonBlockingFileWriter writer =
+                new NonBlockingFileWriter(asyncContext, out, body, in);
+            asyncContext.addListener(writer);
+            out.setWriteListener(writer);
+        } catch (final IOException | IllegalStateException e) {
+            Closeables.closeQuietly(in);
+            throw e;
+        }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (out.isReady()) {
+            if (remaining == 0) {
+                if (flushed) {
+                    body.delivered();
+                    asyncContext.complete();
+                    return;
+                }
+                out.flush();
+                flushed = true;
+                continue;
+            }
+
+            final int len = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (len < 0) {
+                throw new EOFException("Unexpected end of file - " + remaining + " bytes missing");
+            }
+            remaining -= len;
+            out.write(buf, 0, len);
+        }
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        // usually the client closed the connection
+        LOG.warn("Download aborted with {} bytes remaining: {}", remaining, t.toString());
+        asyncContext.complete();
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) {
+        asyncContext.complete();
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) {
+        Closeables.closeQuietly(in);
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) {
+        LOG.warn("Download timed out with {} bytes remaining", remaining);
+        asyncContext.complete();
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) {
+    }
+
+}
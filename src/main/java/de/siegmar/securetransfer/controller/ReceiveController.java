@@ -16,14 +16,24 @@
 
 package de.siegmar.securetransfer.controller;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.web.WebMvcProperties;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -34,21 +44,28 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.WebUtils;
 
 import com.google.common.hash.HashCode;
 import com.google.common.io.BaseEncoding;
-import com.google.common.io.ByteStreams;
 
+import de.siegmar.securetransfer.component.ZipStreamWriter;
+import de.siegmar.securetransfer.config.SecureTransferConfiguration;
 import de.siegmar.securetransfer.controller.dto.DecryptMessageCommand;
+import de.siegmar.securetransfer.domain.Compression;
 import de.siegmar.securetransfer.domain.DecryptedFile;
 import de.siegmar.securetransfer.domain.DecryptedMessage;
 import de.siegmar.securetransfer.domain.KeyIv;
 import de.siegmar.securetransfer.service.MessageNotFoundException;
 import de.siegmar.securetransfer.service.MessageReceiverService;
 
+@SuppressWarnings({"checkstyle:classfanoutcomplexity",
+    "checkstyle:classdataabstractioncoupling"})
 @Controller
 @RequestMapping("/receive")
 public class ReceiveController {
@@ -58,10 +75,16 @@ public class ReceiveController {
     private static final String FORM_MSG_DISPLAY = "receive/message";
 
     private final MessageReceiverService messageService;
+    private final boolean nonBlockingDownloads;
+    private final Long downloadTimeout;
 
     @Autowired
-    public ReceiveController(final MessageReceiverService messageService) {
+    public ReceiveController(final MessageReceiverService messageService,
+                             final SecureTransferConfiguration config,
+                             final WebMvcProperties webMvcProperties) {
         this.messageService = messageService;
+        nonBlockingDownloads = config.isNonBlockingDownloads();
+        downloadTimeout = webMvcProperties.getAsync().getRequestTimeout();
     }
 
     /**
@@ -109,17 +132,29 @@ public class ReceiveController {
             messageService.decryptAndBurnMessage(id,
                 HashCode.fromString(linkSecret).asBytes(), password);
 
-        model.addAttribute("decryptedMessage", decryptedMessage);
+        model
+            .addAttribute("id", id)
+            .addAttribute("decryptedMessage", decryptedMessage);
 
         // store iv to session to prevent download link "sharing"
         decryptedMessage.getFiles().forEach(f ->
             session.setAttribute(buildSessionAttr(f.getId()), f.getKeyIv().getIv()));
+
+        if (!decryptedMessage.getFiles().isEmpty()) {
+            session.setAttribute(buildFilesSessionAttr(id), decryptedMessage.getFiles().stream()
+                .map(DecryptedFile::getId)
+                .collect(Collectors.toCollection(ArrayList::new)));
+        }
     }
 
     private String buildSessionAttr(final String fileId) {
         return "iv_file_" + fileId;
     }
 
+    private String buildFilesSessionAttr(final String receiverId) {
+        return "files_message_" + receiverId;
+    }
+
     /**
      * Receive password protected message.
      */
@@ -147,16 +182,35 @@ public class ReceiveController {
 
     /**
      * Download attached file.
+     *
+     * Supports single byte ranges to resume interrupted downloads. The file is burned after all
+     * of its bytes have been delivered.
+     *
+     * Files stored gzip compressed are delivered as is (with gzip content encoding) to clients
+     * accepting it - unless a byte range is requested.
+     *
+     * The content is either written by a thread of the download executor (blocking) or via
+     * non-blocking I/O by the container threads - in the latter case the response has been
+     * written already and {@code null} is returned.
      */
     @GetMapping("/file/{id:[a-f0-9]{64}}/{key:[a-f0-9]{64}}")
-    public ResponseEntity<StreamingResponseBody> file(@PathVariable("id") final String id,
-                                                      @PathVariable("key") final String keyHex,
-                                                      final HttpSession session) {
+    public ResponseEntity<StreamingResponseBody> file(
+        @PathVariable("id") final String id,
+        @PathVariable("key") final String keyHex,
+        @RequestHeader(value = HttpHeaders.RANGE, required = false) final String rangeHeader,
+        @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) final String ifRange,
+        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+        final String acceptEncoding,
+        final HttpSession session, final ServletWebRequest webRequest) throws IOException {
 
         final KeyIv keyIv =
             new KeyIv(BaseEncoding.base16().lowerCase().decode(keyHex), resolveFileIv(id, session));
 
         final DecryptedFile decryptedFile = messageService.resolveStoredFile(id, keyIv);
+        final long fileSize = decryptedFile.getOriginalFileSize();
+
+        // the content of a file never changes, so its id is a strong validator
+        final String etag = "\"" + id + "\"";
 
         final HttpHeaders headers = new HttpHeaders();
 
@@ -167,27 +221,256 @@ public class ReceiveController {
             headers.setContentDispositionFormData("attachment", decryptedFile.getName(),
                 StandardCharsets.UTF_8);
         }
-        headers.setContentLength(decryptedFile.getOriginalFileSize());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(etag);
+
+        final boolean gzipped = decryptedFile.getCompression() == Compression.GZIP;
+        if (gzipped) {
+            headers.setVary(Collections.singletonList(HttpHeaders.ACCEPT_ENCODING));
+        }
+
+        final HttpRange range = resolveRange(rangeHeader, ifRange, etag);
+        if (range == null && gzipped && acceptsGzip(acceptEncoding)) {
+            // ranges of the identity representation only
+            headers.set(HttpHeaders.ACCEPT_RANGES, "none");
+            headers.setETag("\"" + id + "-gzip\"");
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            headers.setContentLength(decryptedFile.getCompressedFileSize());
+            return respond(HttpStatus.OK, headers, buildCompressedBody(id, keyIv, session,
+                decryptedFile.getCompressedFileSize(), fileSize), webRequest);
+        }
+
+        if (range == null) {
+            headers.setContentLength(fileSize);
+            return respond(HttpStatus.OK, headers,
+                buildBody(id, keyIv, session, 0, fileSize, fileSize), webRequest);
+        }
+
+        return buildRangeResponse(id, keyIv, session, range, fileSize, headers, webRequest);
+    }
+
+    /**
+     * Download all (not yet downloaded) files of a message as ZIP archive. The archive is
+     * streamed without compression - every file is burned after it has been written.
+     */
+    @GetMapping("/files/{id:[a-f0-9]{64}}/{key:[a-f0-9]{64}}")
+    public ResponseEntity<StreamingResponseBody> files(
+        @PathVariable("id") final String id,
+        @PathVariable("key") final String keyHex,
+        final HttpSession session) {
+
+        @SuppressWarnings("unchecked")
+        final List<String> fileIds = (List<String>) session.getAttribute(buildFilesSessionAttr(id));
+        if (fileIds == null) {
+            throw new MessageNotFoundException();
+        }
 
-        final StreamingResponseBody body = out -> {
-            try (final InputStream in = messageService.getStoredFileInputStream(id, keyIv)) {
-                ByteStreams.copy(in, out);
-                out.flush();
+        final byte[] key = BaseEncoding.base16().lowerCase().decode(keyHex);
+        final List<DecryptedFile> files = new ArrayList<>();
+        for (final String fileId : fileIds) {
+            final byte[] iv = (byte[]) session.getAttribute(buildSessionAttr(fileId));
+            if (iv != null) {
+                files.add(messageService.resolveStoredFile(fileId, new KeyIv(key, iv)));
+            }
+        }
+
+        if (files.isEmpty()) {
+            throw new MessageNotFoundException();
+        }
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/zip"));
+        headers.setContentDispositionFormData("attachment", "files.zip");
+
+        return new ResponseEntity<>(buildZipBody(files, key, session), headers, HttpStatus.OK);
+    }
+
+    private StreamingResponseBody buildZipBody(final List<DecryptedFile> files,
+                                               final byte[] key, final HttpSession session) {
+        return out -> {
+            final ZipStreamWriter zip = new ZipStreamWriter(out);
+            final Set<String> names = new HashSet<>();
+
+            for (final DecryptedFile file : files) {
+                final String fileId = file.getId();
+                final long fileSize = file.getOriginalFileSize();
+                final KeyIv keyIv = new KeyIv(key, file.getKeyIv().getIv());
+
+                try (final InputStream in =
+                         messageService.getStoredFileInputStream(fileId, keyIv, 0)) {
+                    zip.putEntry(uniqueEntryName(file, names), fileSize, in);
+                }
+
+                if (registerDelivery(fileId, session, 0, fileSize, fileSize)) {
+                    messageService.burnFile(fileId);
+                }
             }
 
-            messageService.burnFile(id);
+            zip.finish();
+            out.flush();
         };
+    }
+
+    private static String uniqueEntryName(final DecryptedFile file, final Set<String> names) {
+        // no directories - prevent path traversal on extraction
+        final String name = file.getName() != null
+            ? file.getName().replaceAll("[/\\\\]", "_")
+            : file.getId();
+
+        String entryName = name;
+        for (int i = 2; !names.add(entryName); i++) {
+            final int ext = name.lastIndexOf('.');
+            entryName = ext > 0
+                ? name.substring(0, ext) + " (" + i + ")" + name.substring(ext)
+                : name + " (" + i + ")";
+        }
+        return entryName;
+    }
+
+    @SuppressWarnings("checkstyle:parameternumber")
+    private ResponseEntity<StreamingResponseBody> buildRangeResponse(
+        final String id, final KeyIv keyIv, final HttpSession session, final HttpRange range,
+        final long fileSize, final HttpHeaders headers, final ServletWebRequest webRequest)
+        throws IOException {
+
+        final long start;
+        final long end;
+        try {
+            start = range.getRangeStart(fileSize);
+            end = range.getRangeEnd(fileSize);
+            if (end < start) {
+                throw new IllegalArgumentException("Empty range");
+            }
+        } catch (final IllegalArgumentException e) {
+            final HttpHeaders errorHeaders = new HttpHeaders();
+            errorHeaders.set(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+            return new ResponseEntity<>(errorHeaders, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
 
-        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+        final long length = end - start + 1;
+
+        headers.setContentLength(length);
+        headers.set(HttpHeaders.CONTENT_RANGE,
+            String.format("bytes %d-%d/%d", start, end, fileSize));
+
+        return respond(HttpStatus.PARTIAL_CONTENT, headers,
+            buildBody(id, keyIv, session, start, length, fileSize), webRequest);
+    }
+
+    private ResponseEntity<StreamingResponseBody> respond(
+        final HttpStatus status, final HttpHeaders headers, final FileDownloadBody body,
+        final ServletWebRequest webRequest) throws IOException {
+
+        if (!nonBlockingDownloads) {
+            return new ResponseEntity<>(body.toStreamingResponseBody(), headers, status);
+        }
+
+        final HttpServletResponse response = webRequest.getResponse();
+        response.setStatus(status.value());
+        headers.forEach((name, values) -> values.forEach(v -> response.addHeader(name, v)));
+        NonBlockingFileWriter.start(webRequest.getRequest(), response, body, downloadTimeout);
+        return null;
+    }
+
+    /**
+     * Resolves the requested byte range. Multiple ranges are not supported - the entire file
+     * is delivered instead, as permitted by RFC 7233.
+     */
+    private static HttpRange resolveRange(final String rangeHeader, final String ifRange,
+                                          final String etag) {
+        if (rangeHeader == null || ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+
+        final List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (final IllegalArgumentException e) {
+            // invalid range header has to be ignored
+            return null;
+        }
+
+        return ranges.size() == 1 ? ranges.get(0) : null;
+    }
+
+    private static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] params = coding.trim().split("\\s*;\\s*");
+            if ("gzip".equalsIgnoreCase(params[0])) {
+                return params.length == 1 || !params[1].matches("(?i)q=0(\\.0*)?");
+            }
+        }
+
+        return false;
+    }
+
+    private FileDownloadBody buildCompressedBody(final String id, final KeyIv keyIv,
+                                                 final HttpSession session,
+                                                 final long compressedFileSize,
+                                                 final long fileSize) {
+        return new FileDownloadBody(
+            () -> messageService.getCompressedFileInputStream(id, keyIv), compressedFileSize,
+            () -> {
+                if (registerDelivery(id, session, 0, fileSize, fileSize)) {
+                    messageService.burnFile(id);
+                }
+            });
+    }
+
+    private FileDownloadBody buildBody(final String id, final KeyIv keyIv,
+                                       final HttpSession session, final long start,
+                                       final long length, final long fileSize) {
+        return new FileDownloadBody(
+            () -> messageService.getStoredFileInputStream(id, keyIv, start), length,
+            () -> {
+                if (registerDelivery(id, session, start, length, fileSize)) {
+                    messageService.burnFile(id);
+                }
+            });
+    }
+
+    /**
+     * Registers a delivered byte range.
+     *
+     * @return {@code true} if the file has been delivered completely and has to be burned
+     */
+    private boolean registerDelivery(final String id, final HttpSession session,
+                                     final long start, final long length, final long fileSize) {
+        final String ivAttr = buildSessionAttr(id);
+        final String rangesAttr = "ranges_file_" + id;
+
+        synchronized (WebUtils.getSessionMutex(session)) {
+            if (session.getAttribute(ivAttr) == null) {
+                // already delivered completely by a concurrent request
+                return false;
+            }
+
+            DeliveredRanges deliveredRanges = (DeliveredRanges) session.getAttribute(rangesAttr);
+            if (deliveredRanges == null) {
+                deliveredRanges = new DeliveredRanges();
+            }
+            deliveredRanges.add(start, start + length);
+
+            if (!deliveredRanges.covers(fileSize)) {
+                session.setAttribute(rangesAttr, deliveredRanges);
+                return false;
+            }
+
+            session.removeAttribute(rangesAttr);
+            session.removeAttribute(ivAttr);
+            return true;
+        }
     }
 
     private byte[] resolveFileIv(final String id, final HttpSession session) {
-        final String idInSession = buildSessionAttr(id);
-        final byte[] iv = (byte[]) session.getAttribute(idInSession);
+        final byte[] iv = (byte[]) session.getAttribute(buildSessionAttr(id));
         if (iv == null) {
             throw new MessageNotFoundException();
         }
-        session.removeAttribute(idInSession);
         return iv;
     }
 
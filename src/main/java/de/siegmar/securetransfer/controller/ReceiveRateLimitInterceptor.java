@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.controller;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import de.siegmar.securetransfer.component.RateLimiter;
+
+/**
+ * Limits the requests to receive a message per client address and per message. Rejected
+ * requests are answered with 429 before any message is read.
+ *
+ * The client address respects X-Forwarded-For headers if server.use-forward-headers is enabled.
+ */
+public class ReceiveRateLimitInterceptor extends HandlerInterceptorAdapter {
+
+    private final RateLimiter clientLimiter;
+    private final RateLimiter messageLimiter;
+
+    public ReceiveRateLimitInterceptor(final RateLimiter clientLimiter,
+                                       final RateLimiter messageLimiter) {
+        this.clientLimiter = clientLimiter;
+        this.messageLimiter = messageLimiter;
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request,
+                             final HttpServletResponse response,
+                             final Object handler) throws Exception {
+
+        long waitNanos = clientLimiter.tryAcquire(request.getRemoteAddr());
+
+        if (waitNanos == 0) {
+            final String receiverId = resolveReceiverId(request);
+            if (receiverId != null) {
+                waitNanos = messageLimiter.tryAcquire(receiverId);
+            }
+        }
+
+        if (waitNanos == 0) {
+            return true;
+        }
+
+        final long retryAfterSeconds =
+            TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1);
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String resolveReceiverId(final HttpServletRequest request) {
+        final Map<String, String> uriVariables = (Map<String, String>)
+            request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return uriVariables != null ? uriVariables.get("id") : null;
+    }
+
+    public RateLimiter getClientLimiter() {
+        return clientLimiter;
+    }
+
+    public RateLimiter getMessageLimiter() {
+        return messageLimiter;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.controller;
+
+/**
+ * Classes of requests with separate concurrency limits.
+ */
+public enum RequestClass {
+
+    /**
+     * Page renders and everything else that is quick to serve.
+     */
+    INTERACTIVE,
+
+    /**
+     * Password validation of received messages (BCrypt).
+     */
+    PASSWORD,
+
+    /**
+     * Messages with (large) files and chunks of resumable uploads.
+     */
+    UPLOAD,
+
+    /**
+     * File downloads.
+     */
+    DOWNLOAD
+
+}
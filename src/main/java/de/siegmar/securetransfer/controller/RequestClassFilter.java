@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.controller;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import de.siegmar.securetransfer.component.ConcurrencyLimiter;
+
+/**
+ * Classifies requests (see {@link RequestClass}) and admits them only while the concurrency
+ * limit of their class isn't reached - bulk transfers can't occupy all server threads and
+ * starve page renders. Rejected requests are answered with 503 and a Retry-After header before
+ * the request body is read, a file is resolved or any session state (e.g. the file IV) is
+ * touched.
+ *
+ * The filter has to run before any other filter reads request parameters (and thus parses
+ * multipart uploads). Asynchronous requests (streamed downloads) are counted until the async
+ * request completes.
+ */
+public class RequestClassFilter extends OncePerRequestFilter {
+
+    private static final long UPLOAD_THRESHOLD = 1024 * 1024;
+
+    private final Map<RequestClass, ConcurrencyLimiter> limiters;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    public RequestClassFilter(final Map<RequestClass, ConcurrencyLimiter> limiters) {
+        this.limiters = limiters;
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request,
+                                    final HttpServletResponse response,
+                                    final FilterChain filterChain)
+        throws ServletException, IOException {
+
+        final ConcurrencyLimiter limiter = limiters.get(classify(request));
+
+        if (!limiter.tryAcquire()) {
+            response.setHeader(HttpHeaders.RETRY_AFTER,
+                String.valueOf(limiter.getRetryAfterSeconds()));
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return;
+        }
+
+        final long start = System.nanoTime();
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            async = request.isAsyncStarted();
+        } finally {
+            if (async) {
+                request.getAsyncContext().addListener(new ReleaseListener(limiter, start));
+            } else {
+                limiter.release(start);
+            }
+        }
+    }
+
+    RequestClass classify(final HttpServletRequest request) {
+        final String path = request.getRequestURI().substring(request.getContextPath().length());
+        final HttpMethod method = HttpMethod.resolve(request.getMethod());
+
+        final RequestClass requestClass;
+        // single files and all files of a message (ZIP)
+        if (method == HttpMethod.GET && pathMatcher.match("/receive/file*/**", path)) {
+            requestClass = RequestClass.DOWNLOAD;
+        } else if (isUpload(request, method, path)) {
+            requestClass = RequestClass.UPLOAD;
+        } else if (method == HttpMethod.POST && pathMatcher.match("/receive/password/*", path)) {
+            requestClass = RequestClass.PASSWORD;
+        } else {
+            requestClass = RequestClass.INTERACTIVE;
+        }
+
+        return requestClass;
+    }
+
+    private boolean isUpload(final HttpServletRequest request, final HttpMethod method,
+                             final String path) {
+        if (method == HttpMethod.PUT) {
+            return pathMatcher.match("/upload/*/*", path);
+        }
+
+        // small messages (without or with small files) are treated as page requests
+        final long contentLength = request.getContentLengthLong();
+        return method == HttpMethod.POST && "/send".equals(path)
+            && (contentLength < 0 || contentLength > UPLOAD_THRESHOLD);
+    }
+
+    public ConcurrencyLimiter getLimiter(final RequestClass requestClass) {
+        return limiters.get(requestClass);
+    }
+
+    private static final class ReleaseListener implements AsyncListener {
+
+        private final ConcurrencyLimiter limiter;
+        private final long start;
+
+        ReleaseListener(final ConcurrencyLimiter limiter, final long start) {
+            this.limiter = limiter;
+            this.start = start;
+        }
+
+        // also called after timeouts and errors
+        @Override
+        public void onComplete(final AsyncEvent event) throws IOException {
+            limiter.release(start);
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) throws IOException {
+        }
+
+    }
+
+}
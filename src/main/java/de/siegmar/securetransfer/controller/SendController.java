@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.OptionalInt;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
@@ -65,7 +66,9 @@ import de.siegmar.securetransfer.domain.KeyIv;
 import de.siegmar.securetransfer.domain.SecretFile;
 import de.siegmar.securetransfer.domain.SenderMessage;
 import de.siegmar.securetransfer.service.MessageSenderService;
+import de.siegmar.securetransfer.service.UploadService;
 
+@SuppressWarnings("checkstyle:classfanoutcomplexity")
 @Controller
 @RequestMapping("/send")
 public class SendController {
@@ -73,15 +76,20 @@ public class SendController {
     private static final String FORM_SEND_MSG = "send/send_form";
     private static final String FORM_MSG_STATUS = "send/message_status";
 
+    private static final String FIELD_UPLOAD_ID = "uploadId";
+
     private final MessageSenderService messageService;
+    private final UploadService uploadService;
     private final Validator validator;
     private final SecureTransferConfiguration config;
 
     @Autowired
     public SendController(final MessageSenderService messageService,
+                          final UploadService uploadService,
                           final @Qualifier("mvcValidator") Validator validator,
                           final SecureTransferConfiguration config) {
         this.messageService = messageService;
+        this.uploadService = uploadService;
         this.validator = validator;
         this.config = config;
     }
@@ -115,31 +123,46 @@ public class SendController {
         }
 
         // Create encryptionKey and initialization vector (IV) to encrypt data
-        final KeyIv encryptionKey = messageService.newEncryptionKey();
+        final HttpSession session = req.getSession(false);
+        final KeyIv encryptionKey = initEncryptionKey(session);
 
         // secret shared with receiver using the link - not stored in database
         final String linkSecret = messageService.newRandomId();
 
         final DataBinder binder = initBinder();
+        final List<String> uploadIds = new ArrayList<>();
 
-        final List<SecretFile> tmpFiles = handleStream(req, encryptionKey, binder);
+        final List<SecretFile> tmpFiles = handleStream(req, encryptionKey, binder, uploadIds);
 
         final EncryptMessageCommand command = (EncryptMessageCommand) binder.getTarget();
         final BindingResult errors = binder.getBindingResult();
 
         if (!errors.hasErrors()
             && command.getMessage() == null
-            && (tmpFiles == null || tmpFiles.isEmpty())) {
+            && tmpFiles.isEmpty() && uploadIds.isEmpty()) {
             errors.reject(null, "Neither message nor files submitted");
         }
 
         if (errors.hasErrors()) {
-            return new ModelAndView(FORM_SEND_MSG, binder.getBindingResult().getModel());
+            return rejectForm(binder, tmpFiles);
         }
 
-        final String senderId = messageService.storeMessage(command.getMessage(), tmpFiles,
-            encryptionKey, HashCode.fromString(linkSecret).asBytes(), command.getPassword(),
-            Instant.now().plus(command.getExpirationDays(), ChronoUnit.DAYS));
+        // files uploaded in advance expire along with the message
+        final Instant expiration =
+            Instant.now().plus(command.getExpirationDays(), ChronoUnit.DAYS);
+
+        claimUploads(uploadIds, encryptionKey, expiration, tmpFiles, errors);
+        if (errors.hasErrors()) {
+            return rejectForm(binder, tmpFiles);
+        }
+
+        final String senderId =
+            storeMessage(command, tmpFiles, encryptionKey, linkSecret, expiration);
+
+        // uploads of this session are sent - further uploads need a new key
+        if (session != null) {
+            session.removeAttribute(UploadController.SESSION_KEY_ATTR);
+        }
 
         redirectAttributes
             .addFlashAttribute("messageSent", true)
@@ -151,6 +174,30 @@ public class SendController {
     }
 
 
+    private ModelAndView rejectForm(final DataBinder binder, final List<SecretFile> files) {
+        // files of the form belong to no message - the uploads are kept for a retry
+        messageService.burnFiles(files);
+        return new ModelAndView(FORM_SEND_MSG, binder.getBindingResult().getModel());
+    }
+
+    private String storeMessage(final EncryptMessageCommand command,
+                                final List<SecretFile> files, final KeyIv encryptionKey,
+                                final String linkSecret, final Instant expiration) {
+        boolean stored = false;
+        try {
+            final String senderId = messageService.storeMessage(command.getMessage(), files,
+                encryptionKey, HashCode.fromString(linkSecret).asBytes(), command.getPassword(),
+                expiration);
+            stored = true;
+            return senderId;
+        } finally {
+            // don't leave files behind that no message refers to
+            if (!stored) {
+                messageService.burnFiles(files);
+            }
+        }
+    }
+
     private DataBinder initBinder() {
         final DataBinder binder = new DataBinder(new EncryptMessageCommand(), "command");
         binder.registerCustomEditor(String.class, new StringTrimmerEditor(true));
@@ -158,8 +205,30 @@ public class SendController {
         return binder;
     }
 
+    private KeyIv initEncryptionKey(final HttpSession session) {
+        final KeyIv encryptionKey = messageService.newEncryptionKey();
+
+        // files uploaded in advance by this session are already encrypted with the session key
+        final byte[] uploadKey = session != null
+            ? (byte[]) session.getAttribute(UploadController.SESSION_KEY_ATTR) : null;
+
+        return uploadKey != null ? new KeyIv(uploadKey, encryptionKey.getIv()) : encryptionKey;
+    }
+
+    private void claimUploads(final List<String> uploadIds, final KeyIv encryptionKey,
+                              final Instant expiration, final List<SecretFile> files,
+                              final BindingResult errors) {
+        try {
+            files.addAll(uploadService.claimUploads(uploadIds, encryptionKey.getKey(),
+                expiration));
+        } catch (final IllegalStateException e) {
+            errors.reject(null, e.getMessage());
+        }
+    }
+
     private List<SecretFile> handleStream(final HttpServletRequest req,
-                                          final KeyIv encryptionKey, final DataBinder binder)
+                                          final KeyIv encryptionKey, final DataBinder binder,
+                                          final List<String> uploadIds)
         throws FileUploadException, IOException {
 
         final BindingResult errors = binder.getBindingResult();
@@ -174,6 +243,13 @@ public class SendController {
 
             @Override
             void emitField(final String name, final String value) {
+                if (FIELD_UPLOAD_ID.equals(name)) {
+                    if (!Strings.isNullOrEmpty(value)) {
+                        uploadIds.add(value);
+                    }
+                    return;
+                }
+
                 propertyValues.addPropertyValue(name, value);
 
                 if ("expirationDays".equals(name)) {
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.controller;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.WebUtils;
+
+import com.google.common.base.Strings;
+
+import de.siegmar.securetransfer.service.MessageNotFoundException;
+import de.siegmar.securetransfer.service.MessageSenderService;
+import de.siegmar.securetransfer.service.Upload;
+import de.siegmar.securetransfer.service.UploadService;
+
+/**
+ * Resumable (chunked) file upload. Files uploaded within one session are encrypted with the same
+ * key and are attached to the message sent by the session (form field {@code uploadId}).
+ */
+@RestController
+@RequestMapping("/upload")
+public class UploadController {
+
+    /**
+     * Session attribute holding the key of the message the uploaded files belong to.
+     */
+    static final String SESSION_KEY_ATTR = "upload_key";
+
+    private final UploadService uploadService;
+    private final MessageSenderService messageService;
+
+    @Autowired
+    public UploadController(final UploadService uploadService,
+                            final MessageSenderService messageService) {
+        this.uploadService = uploadService;
+        this.messageService = messageService;
+    }
+
+    /**
+     * Create a new upload.
+     */
+    @PostMapping
+    public ResponseEntity<Upload> create(@RequestParam("name") final String name,
+                                         @RequestParam("size") final long size,
+                                         final HttpSession session,
+                                         final UriComponentsBuilder uriComponentsBuilder) {
+
+        final String fileName = FilenameUtils.getName(name);
+        if (Strings.isNullOrEmpty(fileName)) {
+            throw new IllegalArgumentException("No file name given");
+        }
+
+        final Upload upload = uploadService.createUpload(fileName, size, initSessionKey(session));
+
+        return ResponseEntity.created(uriComponentsBuilder.path("/upload/{id}")
+            .buildAndExpand(upload.getId()).toUri()).body(upload);
+    }
+
+    private byte[] initSessionKey(final HttpSession session) {
+        synchronized (WebUtils.getSessionMutex(session)) {
+            byte[] key = (byte[]) session.getAttribute(SESSION_KEY_ATTR);
+            if (key == null) {
+                key = messageService.newEncryptionKey().getKey();
+                session.setAttribute(SESSION_KEY_ATTR, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Query the state of an upload - the upload continues at the received offset.
+     */
+    @GetMapping("/{id:[a-f0-9]{64}}")
+    public Upload status(@PathVariable("id") final String id, final HttpSession session) {
+        return uploadService.getUpload(id, sessionKey(session));
+    }
+
+    /**
+     * Upload a chunk (numbered from 0). All chunks but the last one have the chunk size reported
+     * on upload creation.
+     */
+    @PutMapping("/{id:[a-f0-9]{64}}/{chunk:[0-9]+}")
+    public Upload chunk(@PathVariable("id") final String id,
+                        @PathVariable("chunk") final long chunk,
+                        final HttpServletRequest req) throws IOException {
+
+        return uploadService.appendChunk(id, sessionKey(req.getSession()), chunk,
+            req.getInputStream(), req.getContentLengthLong());
+    }
+
+    /**
+     * Cancel an upload.
+     */
+    @DeleteMapping("/{id:[a-f0-9]{64}}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void cancel(@PathVariable("id") final String id, final HttpSession session) {
+        uploadService.cancelUpload(id, sessionKey(session));
+    }
+
+    private static byte[] sessionKey(final HttpSession session) {
+        return (byte[]) session.getAttribute(SESSION_KEY_ATTR);
+    }
+
+    @ExceptionHandler(MessageNotFoundException.class)
+    public ResponseEntity<String> notFound() {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Upload not found");
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(final IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<String> conflict(final IllegalStateException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
+}
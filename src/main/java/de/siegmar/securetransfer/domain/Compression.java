@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.domain;
+
+public enum Compression {
+
+    /**
+     * Stored as is (legacy files and data that is compressed already).
+     */
+    NONE,
+
+    /**
+     * Deflate (zlib format) compressed before encryption.
+     */
+    DEFLATE,
+
+    /**
+     * Gzip compressed before encryption - can be delivered as is to clients accepting gzip
+     * content encoding.
+     */
+    GZIP
+
+}
@@ -24,13 +24,18 @@ public class DecryptedFile {
     private final String name;
     private final long originalFileSize;
     private final KeyIv keyIv;
+    private final Compression compression;
+    private final long compressedFileSize;
 
     public DecryptedFile(final String id, final String name, final long originalFileSize,
-                         final KeyIv keyIv) {
+                         final KeyIv keyIv, final Compression compression,
+                         final long compressedFileSize) {
         this.id = id;
         this.name = name;
         this.originalFileSize = originalFileSize;
         this.keyIv = keyIv;
+        this.compression = compression;
+        this.compressedFileSize = compressedFileSize;
     }
 
     public String getId() {
@@ -49,6 +54,14 @@ public class DecryptedFile {
         return keyIv;
     }
 
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public long getCompressedFileSize() {
+        return compressedFileSize;
+    }
+
     public String getKeyHex() {
         return BaseEncoding.base16().lowerCase().encode(keyIv.getKey());
     }
@@ -27,17 +27,32 @@ public class SecretFile {
     private KeyIv keyIv;
     private Instant expiration;
 
+    // files stored before the segmented format was introduced don't have this property
+    private StorageFormat format = StorageFormat.CBC;
+
+    // same for files stored before compression was introduced
+    private Compression compression = Compression.NONE;
+
+    // size of the compressed (not yet encrypted) data
+    private long compressedFileSize;
+
     public SecretFile() {
     }
 
+    @SuppressWarnings("checkstyle:parameternumber")
     public SecretFile(final String id, final CryptedData name, final long originalFileSize,
-                      final long fileSize, final KeyIv keyIv, final Instant expiration) {
+                      final long fileSize, final KeyIv keyIv, final Instant expiration,
+                      final StorageFormat format, final Compression compression,
+                      final long compressedFileSize) {
         this.id = id;
         this.name = name;
         this.originalFileSize = originalFileSize;
         this.fileSize = fileSize;
         this.keyIv = keyIv;
         this.expiration = expiration;
+        this.format = format;
+        this.compression = compression;
+        this.compressedFileSize = compressedFileSize;
     }
 
     public String getId() {
@@ -88,4 +103,28 @@ public class SecretFile {
         this.expiration = expiration;
     }
 
+    public StorageFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(final StorageFormat format) {
+        this.format = format;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(final Compression compression) {
+        this.compression = compression;
+    }
+
+    public long getCompressedFileSize() {
+        return compressedFileSize;
+    }
+
+    public void setCompressedFileSize(final long compressedFileSize) {
+        this.compressedFileSize = compressedFileSize;
+    }
+
 }
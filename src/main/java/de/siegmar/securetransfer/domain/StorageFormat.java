@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.domain;
+
+public enum StorageFormat {
+
+    /**
+     * The whole file encrypted as one AES/CBC/PKCS5Padding stream (legacy format).
+     */
+    CBC,
+
+    /**
+     * AES/CBC encrypted in independent segments of a fixed size (each with its own IV derived
+     * from the file IV) which are processed in parallel.
+     */
+    CBC_SEGMENTED
+
+}
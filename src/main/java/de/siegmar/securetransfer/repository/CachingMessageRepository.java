@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.Striped;
+
+import de.siegmar.securetransfer.domain.Message;
+
+/**
+ * Write-through cache of messages in front of another repository.
+ *
+ * Messages are cached in their encoded form - the cache is limited by the memory used and
+ * every read returns a new instance. Callers can modify it without affecting concurrent
+ * readers until it's passed to {@link #update(String, Message)}.
+ *
+ * Reads of uncached messages and modifications of the same message are serialized to avoid
+ * resurrecting a deleted message by a concurrent read.
+ */
+public class CachingMessageRepository<T extends Message> implements MessageRepository<T> {
+
+    private static final int LOCK_STRIPES = 64;
+
+    // approximate size of the key (64 hex characters) and the cache entry
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final MessageRepository<T> delegate;
+    private final MessageCodec<T> codec;
+    private final Cache<String, byte[]> cache;
+    private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+
+    /**
+     * @param delegate the repository to cache
+     * @param codec the codec for the cached form of the messages
+     * @param maxMemory the maximum memory (bytes) used by cached messages
+     * @param ttl the time after that a cached message is read from the delegate again
+     */
+    public CachingMessageRepository(final MessageRepository<T> delegate,
+                                    final MessageCodec<T> codec, final long maxMemory,
+                                    final Duration ttl) {
+        this.delegate = delegate;
+        this.codec = codec;
+        cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxMemory)
+            .weigher((String id, byte[] data) -> ENTRY_OVERHEAD + data.length)
+            .expireAfterWrite(ttl.toMillis(), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+    }
+
+    @Override
+    public void create(final String messageId, final T message) {
+        final Lock lock = locks.get(messageId);
+        lock.lock();
+        try {
+            delegate.create(messageId, message);
+            cache.put(messageId, codec.encode(message));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void update(final String messageId, final T message) {
+        final Lock lock = locks.get(messageId);
+        lock.lock();
+        try {
+            cache.invalidate(messageId);
+            delegate.update(messageId, message);
+            cache.put(messageId, codec.encode(message));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T read(final String messageId) {
+        final byte[] cached = cache.getIfPresent(messageId);
+        if (cached != null) {
+            return checkExpiration(messageId, codec.decode(cached));
+        }
+
+        final Lock lock = locks.get(messageId);
+        lock.lock();
+        try {
+            final T message = delegate.read(messageId);
+            if (message != null) {
+                cache.put(messageId, codec.encode(message));
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private T checkExpiration(final String messageId, final T message) {
+        if (Instant.now().isAfter(message.getExpiration())) {
+            cache.invalidate(messageId);
+            return null;
+        }
+
+        return message;
+    }
+
+    @Override
+    public boolean delete(final String messageId) {
+        final Lock lock = locks.get(messageId);
+        lock.lock();
+        try {
+            cache.invalidate(messageId);
+            return delegate.delete(messageId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+}
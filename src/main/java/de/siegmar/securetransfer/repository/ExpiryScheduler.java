@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Fires the expiration of stored items (shared by all repositories) close to their expiration
+ * time - instead of scanning all items periodically.
+ *
+ * Pending expirations are kept in a binary min-heap of primitive arrays: the expiration (epoch
+ * seconds, rounded up) and the owner (registered listener) packed into one long and the ID
+ * packed into four longs ({@link PackedIds}) - 40 bytes per item. Items deleted before their
+ * expiration are not removed from the heap; owners have to check if a fired item still exists
+ * (and is expired).
+ */
+public class ExpiryScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExpiryScheduler.class);
+
+    private static final int OWNER_BITS = 8;
+    private static final int MAX_OWNERS = 1 << OWNER_BITS;
+    private static final int ID_LONGS = PackedIds.LONGS;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int SHRINK_RATIO = 4;
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    private final List<Consumer<String>> owners = new CopyOnWriteArrayList<>();
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder().setNameFormat("expiry-%d").setDaemon(true).build());
+
+    private final LongAdder fired = new LongAdder();
+
+    // guarded by this
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] ids = new long[INITIAL_CAPACITY * ID_LONGS];
+    private int size;
+    private final PriorityQueue<Item> otherIds =
+        new PriorityQueue<>(Comparator.comparingLong(i -> i.key));
+    private long nextTick = Long.MAX_VALUE;
+    private ScheduledFuture<?> tickFuture;
+
+    public ExpiryScheduler() {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Registers a listener that is called (by the expiry thread) with the ID of expired items.
+     *
+     * @return the owner ID for {@link #schedule(int, String, Instant)}
+     */
+    public synchronized int register(final Consumer<String> listener) {
+        if (owners.size() == MAX_OWNERS) {
+            throw new IllegalStateException("Too many owners");
+        }
+        owners.add(listener);
+        return owners.size() - 1;
+    }
+
+    public void schedule(final int owner, final String id, final Instant expiration) {
+        final long seconds = expiration.getNano() > 0
+            ? expiration.getEpochSecond() + 1 : expiration.getEpochSecond();
+        final long key = seconds << OWNER_BITS | owner;
+
+        synchronized (this) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                ids = Arrays.copyOf(ids, size * 2 * ID_LONGS);
+            }
+
+            if (PackedIds.pack(id, ids, size * ID_LONGS)) {
+                keys[size] = key;
+                siftUp(size++);
+            } else {
+                otherIds.add(new Item(key, id));
+            }
+
+            requestTick(seconds * MILLIS_PER_SECOND + 1);
+        }
+    }
+
+    // guarded by this
+    private void requestTick(final long millis) {
+        if (millis < nextTick) {
+            if (tickFuture != null) {
+                tickFuture.cancel(false);
+            }
+            nextTick = millis;
+            tickFuture = executor.schedule(this::tick,
+                Math.max(0, millis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void tick() {
+        synchronized (this) {
+            nextTick = Long.MAX_VALUE;
+            tickFuture = null;
+        }
+
+        try {
+            List<Item> due;
+            do {
+                due = pollDue(System.currentTimeMillis());
+                for (final Item item : due) {
+                    fire(item);
+                }
+            } while (due.size() == MAX_BATCH_SIZE);
+        } finally {
+            // re-arm even if polling failed - remaining items must not be stranded
+            synchronized (this) {
+                shrink();
+                final long next = nextKey();
+                if (next != Long.MAX_VALUE && !executor.isShutdown()) {
+                    requestTick((next >>> OWNER_BITS) * MILLIS_PER_SECOND + 1);
+                }
+            }
+        }
+    }
+
+    private synchronized List<Item> pollDue(final long nowMillis) {
+        final long maxKey = (nowMillis - 1) / MILLIS_PER_SECOND << OWNER_BITS | (MAX_OWNERS - 1);
+        final List<Item> due = new ArrayList<>();
+
+        while (due.size() < MAX_BATCH_SIZE && nextKey() <= maxKey) {
+            if (size > 0 && keys[0] == nextKey()) {
+                due.add(new Item(keys[0], PackedIds.unpack(ids, 0)));
+                removeFirst();
+            } else {
+                due.add(otherIds.poll());
+            }
+        }
+
+        return due;
+    }
+
+    // guarded by this
+    private long nextKey() {
+        return Math.min(size > 0 ? keys[0] : Long.MAX_VALUE,
+            otherIds.isEmpty() ? Long.MAX_VALUE : otherIds.peek().key);
+    }
+
+    // guarded by this
+    private void shrink() {
+        if (keys.length > INITIAL_CAPACITY && size < keys.length / SHRINK_RATIO) {
+            final int capacity = Math.max(INITIAL_CAPACITY, keys.length / 2);
+            keys = Arrays.copyOf(keys, capacity);
+            ids = Arrays.copyOf(ids, capacity * ID_LONGS);
+        }
+    }
+
+    /**
+     * Fires one item - a failing listener must neither affect the other items of the batch
+     * nor stop the timer.
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private void fire(final Item item) {
+        try {
+            owners.get((int) (item.key & (MAX_OWNERS - 1))).accept(item.id);
+            fired.increment();
+        } catch (final RuntimeException e) {
+            LOG.error("Error expiring {}", item.id, e);
+        }
+    }
+
+    private void siftUp(final int pos) {
+        int child = pos;
+        while (child > 0) {
+            final int parent = (child - 1) >>> 1;
+            if (keys[parent] <= keys[child]) {
+                break;
+            }
+            swap(parent, child);
+            child = parent;
+        }
+    }
+
+    private void removeFirst() {
+        size--;
+        keys[0] = keys[size];
+        System.arraycopy(ids, size * ID_LONGS, ids, 0, ID_LONGS);
+
+        int parent = 0;
+        while (true) {
+            final int left = 2 * parent + 1;
+            if (left >= size) {
+                break;
+            }
+            final int right = left + 1;
+            final int child = right < size && keys[right] < keys[left] ? right : left;
+            if (keys[parent] <= keys[child]) {
+                break;
+            }
+            swap(parent, child);
+            parent = child;
+        }
+    }
+
+    private void swap(final int a, final int b) {
+        final long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+
+        for (int i = 0; i < ID_LONGS; i++) {
+            final long id = ids[a * ID_LONGS + i];
+            ids[a * ID_LONGS + i] = ids[b * ID_LONGS + i];
+            ids[b * ID_LONGS + i] = id;
+        }
+    }
+
+    /**
+     * Number of pending (not yet fired) items.
+     */
+    public synchronized int getPending() {
+        return size + otherIds.size();
+    }
+
+    public long getFired() {
+        return fired.sum();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class Item {
+
+        private final long key;
+        private final String id;
+
+        Item(final long key, final String id) {
+            this.key = key;
+            this.id = id;
+        }
+
+    }
+
+}
@@ -27,11 +27,29 @@ public interface FileRepository {
 
     SecretFile resolveStoredFile(String id);
 
-    InputStream getStoredFileInputStream(String id, KeyIv key);
+    InputStream getStoredFileInputStream(String id, KeyIv key, long offset);
+
+    /**
+     * Returns the decrypted but still compressed data of the file.
+     */
+    InputStream getCompressedFileInputStream(String id, KeyIv key);
 
     SecretFile storeFile(String id, CryptedData fileName, InputStream in, KeyIv key,
                          Instant expiration);
 
     void burnFile(String id);
 
+    /**
+     * Appends data to an unfinished upload, continuing at the given plaintext offset (a multiple
+     * of the segment size). Data previously appended beyond that offset is discarded.
+     *
+     * @return the number of plaintext bytes appended.
+     */
+    long appendUpload(String id, InputStream in, KeyIv key, long offset, boolean last);
+
+    SecretFile completeUpload(String id, CryptedData fileName, long originalFileSize, KeyIv key,
+                              Instant expiration);
+
+    void deleteUpload(String id);
+
 }
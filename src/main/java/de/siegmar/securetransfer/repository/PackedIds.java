@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository;
+
+/**
+ * Packs IDs in the format of {@code Cryptor.newRandomId()} (64 lowercase hex chars) into four
+ * longs - for compact primitive data structures.
+ */
+public final class PackedIds {
+
+    /**
+     * Number of longs per packed ID.
+     */
+    public static final int LONGS = 4;
+
+    private static final int HEX_PER_LONG = 16;
+    private static final int ID_LENGTH = LONGS * HEX_PER_LONG;
+    private static final int BITS_PER_HEX = 4;
+    private static final int DECIMAL_RADIX = 10;
+
+    private PackedIds() {
+    }
+
+    /**
+     * @return {@code false} if the ID isn't in the format of a random ID.
+     */
+    public static boolean pack(final String id, final long[] dst, final int offset) {
+        if (id.length() != ID_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < LONGS; i++) {
+            long value = 0;
+            for (int j = 0; j < HEX_PER_LONG; j++) {
+                final int digit = hexDigit(id.charAt(i * HEX_PER_LONG + j));
+                if (digit < 0) {
+                    return false;
+                }
+                value = value << BITS_PER_HEX | digit;
+            }
+            dst[offset + i] = value;
+        }
+        return true;
+    }
+
+    private static int hexDigit(final char c) {
+        // only lowercase - IDs are unpacked in lowercase
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        return c >= 'a' && c <= 'f' ? c - 'a' + DECIMAL_RADIX : -1;
+    }
+
+    public static String unpack(final long[] src, final int offset) {
+        final StringBuilder sb = new StringBuilder(ID_LENGTH);
+        for (int i = 0; i < LONGS; i++) {
+            final String hex = Long.toHexString(src[offset + i]);
+            for (int pad = hex.length(); pad < HEX_PER_LONG; pad++) {
+                sb.append('0');
+            }
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+
+}
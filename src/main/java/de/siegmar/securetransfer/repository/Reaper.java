@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Deletes the files of expired items in the background - paced by a token bucket rate limit
+ * (files and bytes per second) so that the reclamation of a large batch of expired items
+ * doesn't compete with uploads and downloads for disk I/O.
+ *
+ * Submitted files are deleted in FIFO order by a dedicated thread in batches: the tokens for a
+ * whole batch are taken at once and the batch is deleted after the rate limit allows it. The
+ * queue is not persistent - callers have to remove the item from their index before submitting
+ * its files and rediscover leftovers on startup.
+ */
+public class Reaper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Reaper.class);
+
+    private final int batchSize;
+    private final TokenBucket fileBucket;
+    private final TokenBucket byteBucket;
+
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+        new ThreadFactoryBuilder().setNameFormat("reaper-%d").setDaemon(true).build());
+    private final BlockingQueue<Item> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // only accessed by the reaper thread
+    private final List<Item> batch = new ArrayList<>();
+
+    // the oldest item of the batch (waiting for its tokens)
+    private volatile Item batchHead;
+
+    private final LongAdder backlog = new LongAdder();
+    private final LongAdder reclaimedFiles = new LongAdder();
+    private final LongAdder reclaimedBytes = new LongAdder();
+
+    /**
+     * @param filesPerSecond the maximum number of deleted files per second (0 = unlimited)
+     * @param bytesPerSecond the maximum number of deleted bytes per second (0 = unlimited)
+     * @param batchSize the maximum number of files deleted at once
+     */
+    public Reaper(final int filesPerSecond, final long bytesPerSecond, final int batchSize) {
+        this.batchSize = batchSize;
+        fileBucket = new TokenBucket(filesPerSecond);
+        byteBucket = new TokenBucket(bytesPerSecond);
+    }
+
+    /**
+     * Queues the given files for deletion - in the given order.
+     */
+    public void submit(final Path... files) {
+        final long now = System.nanoTime();
+        for (final Path file : files) {
+            queue.add(new Item(file, now));
+            backlog.increment();
+        }
+        trigger();
+    }
+
+    private void trigger() {
+        if (running.compareAndSet(false, true)) {
+            executor.execute(this::reap);
+        }
+    }
+
+    private void reap() {
+        for (final Item item : batch) {
+            delete(item);
+        }
+        batch.clear();
+        batchHead = null;
+
+        queue.drainTo(batch, batchSize);
+        if (batch.isEmpty()) {
+            running.set(false);
+
+            // items submitted after the drain may have missed the running task
+            if (!queue.isEmpty()) {
+                trigger();
+            }
+            return;
+        }
+        batchHead = batch.get(0);
+
+        long bytes = 0;
+        for (final Item item : batch) {
+            item.size = sizeOf(item.file);
+            bytes += item.size;
+        }
+
+        final long waitNanos =
+            Math.max(fileBucket.take(batch.size()), byteBucket.take(bytes));
+        executor.schedule(this::reap, waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static long sizeOf(final Path file) {
+        try {
+            return Files.size(file);
+        } catch (final NoSuchFileException e) {
+            return 0;
+        } catch (final IOException e) {
+            LOG.warn("Error reading size of {}", file, e);
+            return 0;
+        }
+    }
+
+    private void delete(final Item item) {
+        try {
+            if (Files.deleteIfExists(item.file)) {
+                reclaimedFiles.increment();
+                reclaimedBytes.add(item.size);
+            }
+        } catch (final IOException e) {
+            LOG.error("Error deleting {}", item.file, e);
+        }
+        backlog.decrement();
+    }
+
+    /**
+     * Number of files waiting for deletion.
+     */
+    public long getBacklog() {
+        return backlog.sum();
+    }
+
+    public long getReclaimedFiles() {
+        return reclaimedFiles.sum();
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes.sum();
+    }
+
+    /**
+     * Milliseconds the oldest file waiting for deletion is queued.
+     */
+    public long getLagMillis() {
+        final Item head = batchHead != null ? batchHead : queue.peek();
+        return head != null
+            ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - head.submitted) : 0;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class Item {
+
+        private final Path file;
+        private final long submitted;
+        private long size;
+
+        Item(final Path file, final long submitted) {
+            this.file = file;
+            this.submitted = submitted;
+        }
+
+    }
+
+    /**
+     * Token bucket with a capacity of one second - only used by the reaper thread. Tokens may
+     * be taken in advance (e.g. for a file larger than the capacity); the caller has to wait
+     * until the debt is paid off.
+     */
+    private static final class TokenBucket {
+
+        private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private final long perSecond;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(final long perSecond) {
+            this.perSecond = perSecond;
+            tokens = perSecond;
+        }
+
+        /**
+         * @return the nanoseconds to wait until the taken tokens are available
+         */
+        long take(final long count) {
+            if (perSecond == 0) {
+                return 0;
+            }
+
+            final long now = System.nanoTime();
+            tokens = Math.min(perSecond,
+                tokens + (now - lastRefill) * perSecond / NANOS_PER_SECOND);
+            lastRefill = now;
+            tokens -= count;
+
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * NANOS_PER_SECOND / perSecond);
+        }
+
+    }
+
+}
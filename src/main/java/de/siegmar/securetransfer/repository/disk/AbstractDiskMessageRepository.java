@@ -19,21 +19,20 @@ package de.siegmar.securetransfer.repository.disk;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.time.Instant;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
 
 import de.siegmar.securetransfer.domain.Message;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
 import de.siegmar.securetransfer.repository.MessageRepository;
+import de.siegmar.securetransfer.repository.Reaper;
 
 public abstract class AbstractDiskMessageRepository<T extends Message>
     implements MessageRepository<T> {
@@ -42,10 +41,20 @@ public abstract class AbstractDiskMessageRepository<T extends Message>
 
     private final Path messagePath;
 
-    private final Map<String, Instant> messages = new ConcurrentHashMap<>();
+    private final ExpiryIndex messages = new ExpiryIndex();
 
-    public AbstractDiskMessageRepository(final Path messagePath) throws IOException {
+    private final ExpiryScheduler expiryScheduler;
+    private final int expiryOwner;
+    private final Reaper reaper;
+
+    public AbstractDiskMessageRepository(final Path messagePath,
+                                         final ExpiryScheduler expiryScheduler,
+                                         final Reaper reaper)
+        throws IOException {
         this.messagePath = Files.createDirectories(messagePath);
+        this.expiryScheduler = expiryScheduler;
+        this.reaper = reaper;
+        expiryOwner = expiryScheduler.register(this::expire);
     }
 
     @PostConstruct
@@ -55,6 +64,7 @@ public abstract class AbstractDiskMessageRepository<T extends Message>
             try {
                 final T m = deserialize(file);
                 messages.put(m.getId(), m.getExpiration());
+                expiryScheduler.schedule(expiryOwner, m.getId(), m.getExpiration());
                 initCnt.incrementAndGet();
             } catch (final IOException e) {
                 log.error("Error reading file {}", file, e);
@@ -71,98 +81,86 @@ public abstract class AbstractDiskMessageRepository<T extends Message>
     public void create(final String messageId, final T message) {
         log.info("Create message {}", messageId);
 
-        final Path messageFilePath = this.messagePath.resolve(messageId);
-        if (Files.exists(messageFilePath)) {
+        if (!messages.putIfAbsent(messageId, message.getExpiration())) {
             throw new IllegalStateException("Message ID " + messageId + " already exists!");
         }
 
-        messages.put(messageId, message.getExpiration());
         try {
-            serialize(messageFilePath, message);
+            serialize(messagePath.resolve(messageId), message);
         } catch (final IOException e) {
+            messages.remove(messageId);
             throw new UncheckedIOException(e);
         }
+        expiryScheduler.schedule(expiryOwner, messageId, message.getExpiration());
     }
 
     @Override
     public void update(final String messageId, final T message) {
         log.info("Update message {}", messageId);
 
-        final Path messageFilePath = this.messagePath.resolve(messageId);
-        if (!Files.exists(messageFilePath)) {
+        final Instant expiration = messages.get(messageId);
+        if (expiration == null) {
             throw new IllegalStateException("Message ID " + messageId + " does not exist!");
         }
 
         try {
-            serialize(messageFilePath, message);
+            serialize(messagePath.resolve(messageId), message);
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
+        if (!expiration.equals(message.getExpiration())
+            && messages.replace(messageId, message.getExpiration())) {
+            expiryScheduler.schedule(expiryOwner, messageId, message.getExpiration());
+        }
     }
 
+    /**
+     * Reads the message from disk - unknown and expired messages are answered by the in-memory
+     * index without accessing the filesystem.
+     */
     @Override
     public T read(final String messageId) {
         log.info("Read message {}", messageId);
 
-        final Path messageFilePath = this.messagePath.resolve(messageId);
-        if (!Files.exists(messageFilePath)) {
+        final Instant expiration = messages.get(messageId);
+        if (expiration == null || Instant.now().isAfter(expiration)) {
+            // Delete of expired messages will be handled by the expiry scheduler
             return null;
         }
 
-        final T message;
         try {
-            message = deserialize(messageFilePath);
+            return deserialize(messagePath.resolve(messageId));
+        } catch (final NoSuchFileException e) {
+            // deleted concurrently
+            return null;
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
-
-        if (Instant.now().isAfter(message.getExpiration())) {
-            // Delete will be handled by cleanup job
-            return null;
-        }
-
-        return message;
     }
 
     @Override
     public boolean delete(final String messageId) {
         log.info("Delete message {}", messageId);
 
-        final Path messageFilePath = this.messagePath.resolve(messageId);
-        final boolean exists;
+        if (!messages.remove(messageId)) {
+            return false;
+        }
+
         try {
-            exists = Files.deleteIfExists(messageFilePath);
+            return Files.deleteIfExists(messagePath.resolve(messageId));
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
-        messages.remove(messageId);
-        return exists;
     }
 
-    @Scheduled(fixedDelay = 900_000)
-    private void cleanup() {
-        log.info("Starting message cleanup Job");
-
-        final Instant now = Instant.now();
-
-        int messageCnt = 0;
-        for (final Iterator<Map.Entry<String, Instant>> it = messages.entrySet().iterator();
-             it.hasNext();) {
-
-            final Map.Entry<String, Instant> entry = it.next();
-
-            if (now.isAfter(entry.getValue())) {
-                try {
-                    delete(entry.getKey());
-                } catch (final UncheckedIOException e) {
-                    log.error("Error deleting file {}", entry.getKey(), e);
-                }
-                it.remove();
-                messageCnt++;
-            }
+    private void expire(final String messageId) {
+        final Instant expiration = messages.get(messageId);
+        if (expiration != null && Instant.now().isAfter(expiration)
+            && messages.remove(messageId)) {
+            // unreadable from now on - the file is deleted in the background
+            log.info("Expire message {}", messageId);
+            reaper.submit(messagePath.resolve(messageId));
         }
-
-        log.info("Cleaned up {} messages", messageCnt);
     }
 
 }
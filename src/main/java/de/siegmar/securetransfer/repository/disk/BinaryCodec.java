@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository.disk;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.siegmar.securetransfer.domain.Compression;
+import de.siegmar.securetransfer.domain.CryptedData;
+import de.siegmar.securetransfer.domain.KeyIv;
+import de.siegmar.securetransfer.domain.ReceiverMessage;
+import de.siegmar.securetransfer.domain.SecretFile;
+import de.siegmar.securetransfer.domain.SenderMessage;
+import de.siegmar.securetransfer.domain.StorageFormat;
+
+/**
+ * Binary representation of the persisted domain objects (version 2).
+ *
+ * Nullable values are prefixed by a presence flag, byte arrays by their length and enums are
+ * written by name. Fields must only ever be appended together with a new version.
+ *
+ * Version history:
+ * <ul>
+ *  <li>1: initial version
+ *  <li>2: the expiration of a file moved to the front (to be read without the rest)
+ * </ul>
+ */
+final class BinaryCodec {
+
+    static final int VERSION = 2;
+    static final int MIN_VERSION = 1;
+
+    private BinaryCodec() {
+    }
+
+    static void writeSenderMessage(final DataOutput out, final SenderMessage message)
+        throws IOException {
+        out.writeUTF(message.getId());
+        writeInstant(out, message.getExpiration());
+        out.writeUTF(message.getReceiverId());
+        out.writeBoolean(message.isPasswordEncrypted());
+        writeInstant(out, message.getReceived());
+        writeInstant(out, message.getBurned());
+        writeInstant(out, message.getInvalidated());
+    }
+
+    static SenderMessage readSenderMessage(final DataInput in, final int version)
+        throws IOException {
+        final SenderMessage message = new SenderMessage();
+        message.setId(in.readUTF());
+        message.setExpiration(readInstant(in));
+        message.setReceiverId(in.readUTF());
+        message.setPasswordEncrypted(in.readBoolean());
+        message.setReceived(readInstant(in));
+        message.setBurned(readInstant(in));
+        message.setInvalidated(readInstant(in));
+        return message;
+    }
+
+    static void writeReceiverMessage(final DataOutput out, final ReceiverMessage message)
+        throws IOException {
+        out.writeUTF(message.getId());
+        writeInstant(out, message.getExpiration());
+        out.writeUTF(message.getSenderId());
+        writeString(out, message.getPassword());
+        writeCryptedData(out, message.getMessage());
+        writeKeyIv(out, message.getKeyIv());
+
+        final List<SecretFile> files = message.getFiles();
+        out.writeInt(files == null ? -1 : files.size());
+        if (files != null) {
+            for (final SecretFile file : files) {
+                writeSecretFile(out, file);
+            }
+        }
+
+        out.writeInt(message.getDecryptAttempts().get());
+    }
+
+    static ReceiverMessage readReceiverMessage(final DataInput in, final int version)
+        throws IOException {
+        final ReceiverMessage message = new ReceiverMessage();
+        message.setId(in.readUTF());
+        message.setExpiration(readInstant(in));
+        message.setSenderId(in.readUTF());
+        message.setPassword(readString(in));
+        message.setMessage(readCryptedData(in));
+        message.setKeyIv(readKeyIv(in));
+
+        final int fileCnt = in.readInt();
+        if (fileCnt >= 0) {
+            final List<SecretFile> files = new ArrayList<>(fileCnt);
+            for (int i = 0; i < fileCnt; i++) {
+                files.add(readSecretFile(in, version));
+            }
+            message.setFiles(files);
+        }
+
+        message.setDecryptAttempts(new AtomicInteger(in.readInt()));
+        return message;
+    }
+
+    static void writeSecretFile(final DataOutput out, final SecretFile file) throws IOException {
+        // first - to be read without the rest
+        writeInstant(out, file.getExpiration());
+        out.writeUTF(file.getId());
+        writeCryptedData(out, file.getName());
+        out.writeLong(file.getOriginalFileSize());
+        out.writeLong(file.getFileSize());
+        writeKeyIv(out, file.getKeyIv());
+        out.writeUTF(file.getFormat().name());
+        out.writeUTF(file.getCompression().name());
+        out.writeLong(file.getCompressedFileSize());
+    }
+
+    static SecretFile readSecretFile(final DataInput in, final int version)
+        throws IOException {
+        if (version == 1) {
+            return readSecretFileV1(in);
+        }
+
+        final SecretFile file = new SecretFile();
+        file.setExpiration(readInstant(in));
+        file.setId(in.readUTF());
+        file.setName(readCryptedData(in));
+        file.setOriginalFileSize(in.readLong());
+        file.setFileSize(in.readLong());
+        file.setKeyIv(readKeyIv(in));
+        file.setFormat(StorageFormat.valueOf(in.readUTF()));
+        file.setCompression(Compression.valueOf(in.readUTF()));
+        file.setCompressedFileSize(in.readLong());
+        return file;
+    }
+
+    private static SecretFile readSecretFileV1(final DataInput in) throws IOException {
+        final SecretFile file = new SecretFile();
+        file.setId(in.readUTF());
+        file.setName(readCryptedData(in));
+        file.setOriginalFileSize(in.readLong());
+        file.setFileSize(in.readLong());
+        file.setKeyIv(readKeyIv(in));
+        file.setExpiration(readInstant(in));
+        file.setFormat(StorageFormat.valueOf(in.readUTF()));
+        file.setCompression(Compression.valueOf(in.readUTF()));
+        file.setCompressedFileSize(in.readLong());
+        return file;
+    }
+
+    /**
+     * Reads only the expiration of a file written by {@link #writeSecretFile}.
+     *
+     * @return the expiration or {@code null} if the version requires reading the whole file
+     */
+    static Instant readSecretFileExpiration(final DataInput in, final int version)
+        throws IOException {
+        return version == 1 ? null : readInstant(in);
+    }
+
+    private static void writeString(final DataOutput out, final String str) throws IOException {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeInstant(final DataOutput out, final Instant instant)
+        throws IOException {
+        out.writeBoolean(instant != null);
+        if (instant != null) {
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+    }
+
+    private static Instant readInstant(final DataInput in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+
+    private static void writeBytes(final DataOutput out, final byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(final DataInput in) throws IOException {
+        final int len = in.readInt();
+        if (len < 0) {
+            throw new IOException("Invalid length: " + len);
+        }
+        final byte[] data = new byte[len];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void writeCryptedData(final DataOutput out, final CryptedData data)
+        throws IOException {
+        out.writeBoolean(data != null);
+        if (data != null) {
+            writeBytes(out, data.getData());
+            writeBytes(out, data.getIv());
+        }
+    }
+
+    private static CryptedData readCryptedData(final DataInput in) throws IOException {
+        return in.readBoolean() ? new CryptedData(readBytes(in), readBytes(in)) : null;
+    }
+
+    private static void writeKeyIv(final DataOutput out, final KeyIv keyIv) throws IOException {
+        out.writeBoolean(keyIv != null);
+        if (keyIv != null) {
+            writeBytes(out, keyIv.getKey());
+            writeBytes(out, keyIv.getIv());
+        }
+    }
+
+    private static KeyIv readKeyIv(final DataInput in) throws IOException {
+        return in.readBoolean() ? new KeyIv(readBytes(in), readBytes(in)) : null;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository.disk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import de.siegmar.securetransfer.domain.ReceiverMessage;
+import de.siegmar.securetransfer.domain.SenderMessage;
+import de.siegmar.securetransfer.repository.MessageCodec;
+
+/**
+ * {@link MessageCodec} using the binary format of the disk repositories (without a version -
+ * for in-memory use only).
+ */
+public final class BinaryMessageCodec<T> implements MessageCodec<T> {
+
+    private final MetadataSerializer.BinaryWriter<T> writer;
+    private final MetadataSerializer.BinaryReader<T> reader;
+
+    private BinaryMessageCodec(final MetadataSerializer.BinaryWriter<T> writer,
+                               final MetadataSerializer.BinaryReader<T> reader) {
+        this.writer = writer;
+        this.reader = reader;
+    }
+
+    public static MessageCodec<SenderMessage> sender() {
+        return new BinaryMessageCodec<>(BinaryCodec::writeSenderMessage,
+            BinaryCodec::readSenderMessage);
+    }
+
+    public static MessageCodec<ReceiverMessage> receiver() {
+        return new BinaryMessageCodec<>(BinaryCodec::writeReceiverMessage,
+            BinaryCodec::readReceiverMessage);
+    }
+
+    @Override
+    public byte[] encode(final T message) {
+        final ByteArrayDataOutput out = ByteStreams.newDataOutput();
+        try {
+            writer.write(out, message);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public T decode(final byte[] data) {
+        try {
+            return reader.read(ByteStreams.newDataInput(data), BinaryCodec.VERSION);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository.disk;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.siegmar.securetransfer.repository.PackedIds;
+
+/**
+ * Compact index of IDs and their expiration.
+ *
+ * IDs in the format of {@code Cryptor.newRandomId()} are packed ({@link PackedIds}) into
+ * four longs of an open addressing (linear probing) table, expirations are stored as unsigned
+ * epoch seconds (rounded up) - 36 bytes per entry instead of 200+ bytes for a map of strings
+ * and instants. Other IDs are kept in a regular map.
+ */
+final class ExpiryIndex {
+
+    private static final int ID_LONGS = PackedIds.LONGS;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int HASH_SHIFT = 32;
+    private static final long MAX_EPOCH_SECOND = 0xFFFF_FFFFL;
+
+    // free slot
+    private static final int EMPTY = 0;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Instant> otherIds = new HashMap<>();
+
+    private long[] ids = new long[INITIAL_CAPACITY * ID_LONGS];
+    private int[] expirations = new int[INITIAL_CAPACITY];
+    private int mask = INITIAL_CAPACITY - 1;
+    private int packedSize;
+
+    /**
+     * @return {@code false} if the ID exists already.
+     */
+    boolean putIfAbsent(final String id, final Instant expiration) {
+        return store(id, expiration, true, false);
+    }
+
+    void put(final String id, final Instant expiration) {
+        store(id, expiration, false, false);
+    }
+
+    /**
+     * @return {@code false} if the ID doesn't exist.
+     */
+    boolean replace(final String id, final Instant expiration) {
+        return store(id, expiration, false, true);
+    }
+
+    private boolean store(final String id, final Instant expiration, final boolean ifAbsent,
+                          final boolean ifPresent) {
+        final long[] key = parse(id);
+
+        lock.writeLock().lock();
+        try {
+            return key == null
+                ? storeOther(id, expiration, ifAbsent, ifPresent)
+                : storePacked(key, toSeconds(expiration), ifAbsent, ifPresent);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean storeOther(final String id, final Instant expiration,
+                               final boolean ifAbsent, final boolean ifPresent) {
+        if (otherIds.containsKey(id) ? ifAbsent : ifPresent) {
+            return false;
+        }
+        otherIds.put(id, expiration);
+        return true;
+    }
+
+    private boolean storePacked(final long[] key, final int expiration,
+                                final boolean ifAbsent, final boolean ifPresent) {
+        final int slot = find(key);
+        if (slot >= 0 ? ifAbsent : ifPresent) {
+            return false;
+        }
+        if (slot >= 0) {
+            expirations[slot] = expiration;
+        } else {
+            insert(-slot - 1, key, expiration);
+        }
+        return true;
+    }
+
+    /**
+     * @return the expiration or {@code null} if the ID doesn't exist.
+     */
+    Instant get(final String id) {
+        final long[] key = parse(id);
+
+        lock.readLock().lock();
+        try {
+            if (key == null) {
+                return otherIds.get(id);
+            }
+
+            final int slot = find(key);
+            return slot >= 0 ? toInstant(expirations[slot]) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(final String id) {
+        return get(id) != null;
+    }
+
+    /**
+     * @return {@code false} if the ID doesn't exist.
+     */
+    boolean remove(final String id) {
+        final long[] key = parse(id);
+
+        lock.writeLock().lock();
+        try {
+            if (key == null) {
+                return otherIds.remove(id) != null;
+            }
+
+            final int slot = find(key);
+            if (slot < 0) {
+                return false;
+            }
+            delete(slot);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int find(final long[] key) {
+        int slot = hash(key[0]) & mask;
+        while (expirations[slot] != EMPTY) {
+            if (matches(slot, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private boolean matches(final int slot, final long[] key) {
+        final int offset = slot * ID_LONGS;
+        for (int i = 0; i < ID_LONGS; i++) {
+            if (ids[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(final int slot, final long[] key, final int expiration) {
+        System.arraycopy(key, 0, ids, slot * ID_LONGS, ID_LONGS);
+        expirations[slot] = expiration;
+
+        // max load factor of 0.75
+        if (++packedSize > expirations.length - (expirations.length >> 2)) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        final long[] oldIds = ids;
+        final int[] oldExpirations = expirations;
+
+        ids = new long[oldIds.length * 2];
+        expirations = new int[oldExpirations.length * 2];
+        mask = expirations.length - 1;
+
+        final long[] key = new long[ID_LONGS];
+        for (int slot = 0; slot < oldExpirations.length; slot++) {
+            if (oldExpirations[slot] != EMPTY) {
+                System.arraycopy(oldIds, slot * ID_LONGS, key, 0, ID_LONGS);
+                final int newSlot = -find(key) - 1;
+                System.arraycopy(key, 0, ids, newSlot * ID_LONGS, ID_LONGS);
+                expirations[newSlot] = oldExpirations[slot];
+            }
+        }
+    }
+
+    /**
+     * Removes the entry by shifting following entries of the same probe sequence back (no
+     * tombstones needed).
+     */
+    private void delete(final int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (expirations[next] != EMPTY) {
+            final int ideal = hash(ids[next * ID_LONGS]) & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                System.arraycopy(ids, next * ID_LONGS, ids, hole * ID_LONGS, ID_LONGS);
+                expirations[hole] = expirations[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        Arrays.fill(ids, hole * ID_LONGS, (hole + 1) * ID_LONGS, 0);
+        expirations[hole] = EMPTY;
+        packedSize--;
+    }
+
+    private static int hash(final long firstIdLong) {
+        return (int) (firstIdLong * HASH_MULTIPLIER >>> HASH_SHIFT);
+    }
+
+    private static int toSeconds(final Instant instant) {
+        final long seconds = instant.getNano() > 0
+            ? instant.getEpochSecond() + 1 : instant.getEpochSecond();
+        return (int) Math.max(1, Math.min(MAX_EPOCH_SECOND, seconds));
+    }
+
+    private static Instant toInstant(final int seconds) {
+        return Instant.ofEpochSecond(Integer.toUnsignedLong(seconds));
+    }
+
+    /**
+     * @return the packed ID or {@code null} if the ID isn't in the format of a random ID.
+     */
+    private static long[] parse(final String id) {
+        final long[] key = new long[ID_LONGS];
+        return PackedIds.pack(id, key, 0) ? key : null;
+    }
+
+}
@@ -19,12 +19,17 @@ package de.siegmar.securetransfer.repository.disk;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,45 +40,82 @@ import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingOutputStream;
 
 import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.FileCompressor;
+import de.siegmar.securetransfer.domain.Compression;
 import de.siegmar.securetransfer.domain.CryptedData;
 import de.siegmar.securetransfer.domain.KeyIv;
+import de.siegmar.securetransfer.domain.MetadataFormat;
 import de.siegmar.securetransfer.domain.SecretFile;
+import de.siegmar.securetransfer.domain.StorageFormat;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
 import de.siegmar.securetransfer.repository.FileRepository;
+import de.siegmar.securetransfer.repository.Reaper;
 
+@SuppressWarnings("checkstyle:classfanoutcomplexity")
 public class FileDiskRepository implements FileRepository {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileDiskRepository.class);
     private static final String META_SUFFIX = ".meta";
     private static final String DATA_SUFFIX = ".data";
     private static final String TMP_SUFFIX = ".tmp";
+    private static final String PART_SUFFIX = ".part";
 
     private final Path storePath;
     private final Cryptor cryptor;
-    private final ObjectMapper mapper = new ObjectMapper()
-        .registerModule(new JavaTimeModule())
-        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
-    private final Map<String, SecretFile> files = new ConcurrentHashMap<>();
-
-    public FileDiskRepository(final Path baseDir, final Cryptor cryptor) throws IOException {
+    private final StorageFormat storageFormat;
+    private final Compression compression;
+    private final MetadataSerializer<SecretFile> serializer;
+
+    private final boolean lazyMetadata;
+    private final ExpiryIndex index = new ExpiryIndex();
+
+    // all file metadata or - in lazy mode - the recently used
+    private final Map<String, SecretFile> files;
+
+    private final ExpiryScheduler expiryScheduler;
+    private final int expiryOwner;
+    private final Reaper reaper;
+
+    @SuppressWarnings("checkstyle:parameternumber")
+    public FileDiskRepository(final Path baseDir, final Cryptor cryptor,
+                              final StorageFormat storageFormat,
+                              final Compression compression,
+                              final MetadataFormat metadataFormat,
+                              final boolean lazyMetadata,
+                              final int metadataCacheSize,
+                              final ExpiryScheduler expiryScheduler,
+                              final Reaper reaper) throws IOException {
         this.storePath = Files.createDirectories(baseDir.resolve("store"));
         this.cryptor = cryptor;
+        this.storageFormat = storageFormat;
+        this.compression = compression;
+        serializer = new MetadataSerializer<>(SecretFile.class, metadataFormat,
+            BinaryCodec::writeSecretFile, BinaryCodec::readSecretFile);
+        this.lazyMetadata = lazyMetadata;
+        files = lazyMetadata
+            ? CacheBuilder.newBuilder().maximumSize(metadataCacheSize)
+                .<String, SecretFile>build().asMap()
+            : new ConcurrentHashMap<>();
+        this.expiryScheduler = expiryScheduler;
+        expiryOwner = expiryScheduler.register(this::expire);
+        this.reaper = reaper;
     }
 
     @PostConstruct
     public void init() throws IOException {
         final List<Path> storedFiles = Files.list(storePath).collect(Collectors.toList());
 
+        // upload sessions don't survive a restart
         storedFiles.stream()
-            .filter(p -> p.getFileName().toString().endsWith(DATA_SUFFIX + TMP_SUFFIX))
+            .filter(p -> p.getFileName().toString().endsWith(DATA_SUFFIX + TMP_SUFFIX)
+                || p.getFileName().toString().endsWith(DATA_SUFFIX + PART_SUFFIX))
             .forEach(file -> {
                 try {
                     LOG.info("Clean up stale upload tmp file: {}", file);
@@ -89,8 +131,7 @@ public class FileDiskRepository implements FileRepository {
             .filter(p -> p.getFileName().toString().endsWith(META_SUFFIX))
             .forEach(file -> {
                 try {
-                    final SecretFile secretFile = mapper.readValue(file.toFile(), SecretFile.class);
-                    files.put(secretFile.getId(), secretFile);
+                    initFile(file);
                     initCnt.incrementAndGet();
                 } catch (final IOException e) {
                     LOG.error("Error reading file {}", file, e);
@@ -99,18 +140,106 @@ public class FileDiskRepository implements FileRepository {
         LOG.info("Initialized {} files on disk", initCnt);
     }
 
+    private void initFile(final Path metaFile) throws IOException {
+        if (lazyMetadata) {
+            final Instant expiration = serializer.readBinaryPrefix(metaFile,
+                BinaryCodec::readSecretFileExpiration);
+
+            if (expiration != null) {
+                final String fileName = metaFile.toFile().getName();
+                addToIndex(fileName.substring(0, fileName.length() - META_SUFFIX.length()),
+                    expiration);
+                return;
+            }
+        }
+
+        final SecretFile secretFile = serializer.read(metaFile);
+        addToIndex(secretFile.getId(), secretFile.getExpiration());
+        if (!lazyMetadata) {
+            files.put(secretFile.getId(), secretFile);
+        }
+    }
+
+    private void addToIndex(final String id, final Instant expiration) {
+        index.put(id, expiration);
+        expiryScheduler.schedule(expiryOwner, id, expiration);
+    }
+
     @Override
     public SecretFile resolveStoredFile(final String id) {
         LOG.info("Read file {}", id);
-        return files.get(id);
+
+        if (!index.contains(id)) {
+            return null;
+        }
+
+        final SecretFile secretFile = files.get(id);
+        return secretFile != null || !lazyMetadata ? secretFile : loadMetadata(id);
+    }
+
+    private SecretFile loadMetadata(final String id) {
+        final SecretFile secretFile;
+        try {
+            secretFile = serializer.read(resolveMetaPath(id));
+        } catch (final NoSuchFileException e) {
+            // burned concurrently
+            return null;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        files.put(id, secretFile);
+        return secretFile;
+    }
+
+    @Override
+    public InputStream getStoredFileInputStream(final String id, final KeyIv key,
+                                                final long offset) {
+        LOG.info("Get stream for file {} from offset {}", id, offset);
+        final SecretFile secretFile = getSecretFile(id);
+
+        // compressed data can only be decompressed from the beginning
+        final long cryptOffset = secretFile.getCompression() == Compression.NONE ? offset : 0;
+
+        final InputStream cryptIn = openCryptIn(secretFile, key, cryptOffset);
+        try {
+            final InputStream fileIn =
+                FileCompressor.decompress(cryptIn, secretFile.getCompression());
+            ByteStreams.skipFully(fileIn, offset - cryptOffset);
+            return fileIn;
+        } catch (final IOException e) {
+            Closeables.closeQuietly(cryptIn);
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
-    public InputStream getStoredFileInputStream(final String id, final KeyIv key) {
-        LOG.info("Get stream for file {}", id);
+    public InputStream getCompressedFileInputStream(final String id, final KeyIv key) {
+        LOG.info("Get compressed stream for file {}", id);
+        return openCryptIn(getSecretFile(id), key, 0);
+    }
+
+    private SecretFile getSecretFile(final String id) {
+        final SecretFile secretFile = resolveStoredFile(id);
+        if (secretFile == null) {
+            throw new IllegalStateException("File " + id + " does not exist");
+        }
+        return secretFile;
+    }
+
+    private InputStream openCryptIn(final SecretFile secretFile, final KeyIv key,
+                                    final long offset) {
         try {
-            return cryptor.getCryptIn(Files.newInputStream(resolveDataPath(id)),
-                key);
+            final SeekableByteChannel channel =
+                Files.newByteChannel(resolveDataPath(secretFile.getId()));
+            try {
+                channel.position(cryptor.getCipherPosition(secretFile.getFormat(), offset));
+                return cryptor.getCryptIn(Channels.newInputStream(channel),
+                    key, secretFile.getFormat(), offset);
+            } catch (final IOException e) {
+                channel.close();
+                throw e;
+            }
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -128,11 +257,15 @@ public class FileDiskRepository implements FileRepository {
         final Path dataTmpFile = dataFile.resolveSibling(dataFile.getFileName() + TMP_SUFFIX);
 
         try {
+            final PushbackInputStream fileIn = FileCompressor.sniffable(in);
+            final Compression fileCompression = FileCompressor.select(fileIn, compression);
             final long originalFileSize;
+            final CountingOutputStream compressedOut = new CountingOutputStream(
+                cryptor.getCryptOut(Files.newOutputStream(dataTmpFile), key, storageFormat));
 
-            try (final OutputStream cryptOut = cryptor.getCryptOut(
-                Files.newOutputStream(dataTmpFile), key)) {
-                originalFileSize = ByteStreams.copy(in, cryptOut);
+            try (final OutputStream out =
+                     FileCompressor.compress(compressedOut, fileCompression)) {
+                originalFileSize = ByteStreams.copy(fileIn, out);
             } catch (final IOException e) {
                 Files.delete(dataTmpFile);
                 throw e;
@@ -142,10 +275,12 @@ public class FileDiskRepository implements FileRepository {
 
             final SecretFile secretFile =
                 new SecretFile(id, originalName, originalFileSize, Files.size(dataFile),
-                    key, expiration);
+                    key, expiration, storageFormat, fileCompression,
+                    compressedOut.getCount());
 
-            mapper.writeValue(metaFile.toFile(), secretFile);
+            serializer.write(metaFile, secretFile);
 
+            addToIndex(id, expiration);
             files.put(id, secretFile);
 
             return secretFile;
@@ -154,6 +289,76 @@ public class FileDiskRepository implements FileRepository {
         }
     }
 
+    @Override
+    public long appendUpload(final String id, final InputStream in, final KeyIv key,
+                             final long offset, final boolean last) {
+
+        LOG.info("Append to upload {} at offset {}", id, offset);
+
+        final long position = cryptor.getCipherPosition(StorageFormat.CBC_SEGMENTED, offset);
+
+        try (final FileChannel channel = FileChannel.open(resolvePartPath(id),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+            if (channel.size() < position) {
+                throw new IllegalStateException("Upload " + id + " has only " + channel.size()
+                    + " bytes - can't continue at position " + position);
+            }
+            channel.truncate(position);
+            channel.position(position);
+
+            try (final OutputStream cryptOut = cryptor.getSegmentedAppendOut(
+                Channels.newOutputStream(channel), key, offset, last)) {
+                return ByteStreams.copy(in, cryptOut);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public SecretFile completeUpload(final String id, final CryptedData fileName,
+                                     final long originalFileSize, final KeyIv key,
+                                     final Instant expiration) {
+
+        LOG.info("Complete upload {}", id);
+
+        final Path dataFile = resolveDataPath(id);
+
+        try {
+            Files.move(resolvePartPath(id), dataFile, StandardCopyOption.ATOMIC_MOVE);
+
+            final SecretFile secretFile =
+                new SecretFile(id, fileName, originalFileSize, Files.size(dataFile),
+                    key, expiration, StorageFormat.CBC_SEGMENTED, Compression.NONE,
+                    originalFileSize);
+
+            serializer.write(resolveMetaPath(id), secretFile);
+
+            addToIndex(id, expiration);
+            files.put(id, secretFile);
+
+            return secretFile;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void deleteUpload(final String id) {
+        LOG.info("Delete upload {}", id);
+
+        try {
+            Files.deleteIfExists(resolvePartPath(id));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path resolvePartPath(final String id) {
+        return storePath.resolve(id + DATA_SUFFIX + PART_SUFFIX);
+    }
+
     private Path resolveDataPath(final String id) {
         return storePath.resolve(id + DATA_SUFFIX);
     }
@@ -173,33 +378,21 @@ public class FileDiskRepository implements FileRepository {
             throw new UncheckedIOException(e);
         }
 
+        index.remove(id);
         files.remove(id);
     }
 
-    @Scheduled(fixedDelay = 900_000)
-    private void cleanup() {
-        LOG.info("Starting file cleanup Job");
-
-        final Instant now = Instant.now();
-
-        int messageCnt = 0;
-        for (final Iterator<Map.Entry<String, SecretFile>> it = files.entrySet().iterator();
-             it.hasNext();) {
-
-            final Map.Entry<String, SecretFile> entry = it.next();
-
-            if (now.isAfter(entry.getValue().getExpiration())) {
-                try {
-                    burnFile(entry.getKey());
-                } catch (final UncheckedIOException e) {
-                    LOG.error("Error deleting file {}", entry.getKey(), e);
-                }
-                it.remove();
-                messageCnt++;
-            }
+    private void expire(final String id) {
+        final Instant expiration = index.get(id);
+        if (expiration == null || !Instant.now().isAfter(expiration) || !index.remove(id)) {
+            return;
         }
 
-        LOG.info("Cleaned up {} files", messageCnt);
+        // unreadable from now on - the files are deleted in the background (data first, as
+        // leftover metadata is expired again after a restart)
+        LOG.info("Expire file {}", id);
+        files.remove(id);
+        reaper.submit(resolveDataPath(id), resolveMetaPath(id));
     }
 
 }
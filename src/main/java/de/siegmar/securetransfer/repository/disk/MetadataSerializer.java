@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.repository.disk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.common.io.ByteStreams;
+
+import de.siegmar.securetransfer.domain.MetadataFormat;
+
+/**
+ * Reads and writes objects in the configured {@link MetadataFormat}.
+ *
+ * Binary files start with a magic byte (never the start of a JSON document) followed by the
+ * version of the {@link BinaryCodec}. Files in JSON format (written by previous versions) are
+ * detected and read transparently.
+ */
+final class MetadataSerializer<T> {
+
+    private static final int MAGIC = 0xB5;
+    private static final int PREFIX_SIZE = 64;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .registerModule(new JavaTimeModule())
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Class<T> type;
+    private final MetadataFormat format;
+    private final BinaryWriter<T> binaryWriter;
+    private final BinaryReader<T> binaryReader;
+
+    MetadataSerializer(final Class<T> type, final MetadataFormat format,
+                       final BinaryWriter<T> binaryWriter, final BinaryReader<T> binaryReader) {
+        this.type = type;
+        this.format = format;
+        this.binaryWriter = binaryWriter;
+        this.binaryReader = binaryReader;
+    }
+
+    T read(final Path file) throws IOException {
+        final byte[] data = Files.readAllBytes(file);
+
+        if (data.length == 0 || Byte.toUnsignedInt(data[0]) != MAGIC) {
+            return MAPPER.readValue(data, type);
+        }
+
+        final DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+        return binaryReader.read(in, checkVersion(file, in));
+    }
+
+    /**
+     * Reads only the beginning of a file in binary format.
+     *
+     * @return the value read or {@code null} if the file is not in binary format.
+     */
+    <R> R readBinaryPrefix(final Path file, final BinaryReader<R> prefixReader)
+        throws IOException {
+
+        final byte[] prefix = new byte[PREFIX_SIZE];
+        final int len;
+        try (final InputStream in = Files.newInputStream(file)) {
+            len = ByteStreams.read(in, prefix, 0, prefix.length);
+        }
+
+        if (len == 0 || Byte.toUnsignedInt(prefix[0]) != MAGIC) {
+            return null;
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(prefix, 1, len));
+        return prefixReader.read(in, checkVersion(file, in));
+    }
+
+    private static int checkVersion(final Path file, final DataInput in) throws IOException {
+        final int version = in.readUnsignedByte();
+        if (version < BinaryCodec.MIN_VERSION || version > BinaryCodec.VERSION) {
+            throw new IOException("Unsupported binary format version " + version
+                + " of file " + file);
+        }
+        return version;
+    }
+
+    void write(final Path file, final T obj) throws IOException {
+        if (format == MetadataFormat.JSON) {
+            MAPPER.writeValue(file.toFile(), obj);
+            return;
+        }
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(MAGIC);
+        out.writeByte(BinaryCodec.VERSION);
+        binaryWriter.write(out, obj);
+        Files.write(file, bos.toByteArray());
+    }
+
+    @FunctionalInterface
+    interface BinaryWriter<T> {
+
+        void write(DataOutput out, T obj) throws IOException;
+
+    }
+
+    @FunctionalInterface
+    interface BinaryReader<T> {
+
+        T read(DataInput in, int version) throws IOException;
+
+    }
+
+}
@@ -19,31 +19,32 @@ package de.siegmar.securetransfer.repository.disk;
 import java.io.IOException;
 import java.nio.file.Path;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-
+import de.siegmar.securetransfer.domain.MetadataFormat;
 import de.siegmar.securetransfer.domain.ReceiverMessage;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
+import de.siegmar.securetransfer.repository.Reaper;
 
 public class ReceiverMessageDiskRepository extends AbstractDiskMessageRepository<ReceiverMessage> {
 
-    private final ObjectMapper mapper = new ObjectMapper()
-        .registerModule(new JavaTimeModule())
-        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final MetadataSerializer<ReceiverMessage> serializer;
 
-    public ReceiverMessageDiskRepository(final Path baseDir)
+    public ReceiverMessageDiskRepository(final Path baseDir, final MetadataFormat format,
+                                         final ExpiryScheduler expiryScheduler,
+                                         final Reaper reaper)
         throws IOException {
-        super(baseDir.resolve("receiver_messages"));
+        super(baseDir.resolve("receiver_messages"), expiryScheduler, reaper);
+        serializer = new MetadataSerializer<>(ReceiverMessage.class, format,
+            BinaryCodec::writeReceiverMessage, BinaryCodec::readReceiverMessage);
     }
 
     @Override
     ReceiverMessage deserialize(final Path messageFilePath) throws IOException {
-        return mapper.readValue(messageFilePath.toFile(), ReceiverMessage.class);
+        return serializer.read(messageFilePath);
     }
 
     @Override
     void serialize(final Path messageFilePath, final ReceiverMessage message) throws IOException {
-        mapper.writeValue(messageFilePath.toFile(), message);
+        serializer.write(messageFilePath, message);
     }
 
 }
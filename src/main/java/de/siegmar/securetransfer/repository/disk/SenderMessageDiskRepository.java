@@ -19,31 +19,32 @@ package de.siegmar.securetransfer.repository.disk;
 import java.io.IOException;
 import java.nio.file.Path;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-
+import de.siegmar.securetransfer.domain.MetadataFormat;
 import de.siegmar.securetransfer.domain.SenderMessage;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
+import de.siegmar.securetransfer.repository.Reaper;
 
 public class SenderMessageDiskRepository extends AbstractDiskMessageRepository<SenderMessage> {
 
-    private final ObjectMapper mapper = new ObjectMapper()
-        .registerModule(new JavaTimeModule())
-        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final MetadataSerializer<SenderMessage> serializer;
 
-    public SenderMessageDiskRepository(final Path baseDir)
+    public SenderMessageDiskRepository(final Path baseDir, final MetadataFormat format,
+                                       final ExpiryScheduler expiryScheduler,
+                                       final Reaper reaper)
         throws IOException {
-        super(baseDir.resolve("sender_messages"));
+        super(baseDir.resolve("sender_messages"), expiryScheduler, reaper);
+        serializer = new MetadataSerializer<>(SenderMessage.class, format,
+            BinaryCodec::writeSenderMessage, BinaryCodec::readSenderMessage);
     }
 
     @Override
     SenderMessage deserialize(final Path messageFilePath) throws IOException {
-        return mapper.readValue(messageFilePath.toFile(), SenderMessage.class);
+        return serializer.read(messageFilePath);
     }
 
     @Override
     void serialize(final Path messageFilePath, final SenderMessage message) throws IOException {
-        mapper.writeValue(messageFilePath.toFile(), message);
+        serializer.write(messageFilePath, message);
     }
 
 }
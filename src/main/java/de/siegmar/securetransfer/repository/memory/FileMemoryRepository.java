@@ -21,22 +21,26 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.UncheckedIOException;
 import java.time.Instant;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
 
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 
 import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.FileCompressor;
+import de.siegmar.securetransfer.domain.Compression;
 import de.siegmar.securetransfer.domain.CryptedData;
 import de.siegmar.securetransfer.domain.KeyIv;
 import de.siegmar.securetransfer.domain.SecretFile;
+import de.siegmar.securetransfer.domain.StorageFormat;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
 import de.siegmar.securetransfer.repository.FileRepository;
 
 public class FileMemoryRepository implements FileRepository {
@@ -44,11 +48,22 @@ public class FileMemoryRepository implements FileRepository {
     private static final Logger LOG = LoggerFactory.getLogger(FileMemoryRepository.class);
 
     private final Cryptor cryptor;
+    private final StorageFormat storageFormat;
+    private final Compression compression;
     private final Map<String, SecretFile> meta = new ConcurrentHashMap<>();
     private final Map<String, byte[]> data = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> uploads = new ConcurrentHashMap<>();
+    private final ExpiryScheduler expiryScheduler;
+    private final int expiryOwner;
 
-    public FileMemoryRepository(final Cryptor cryptor) {
+    public FileMemoryRepository(final Cryptor cryptor, final StorageFormat storageFormat,
+                                final Compression compression,
+                                final ExpiryScheduler expiryScheduler) {
         this.cryptor = cryptor;
+        this.storageFormat = storageFormat;
+        this.compression = compression;
+        this.expiryScheduler = expiryScheduler;
+        expiryOwner = expiryScheduler.register(this::expire);
     }
 
     @Override
@@ -58,16 +73,53 @@ public class FileMemoryRepository implements FileRepository {
     }
 
     @Override
-    public InputStream getStoredFileInputStream(final String id, final KeyIv key) {
-        LOG.info("Get stream for file {}", id);
+    public InputStream getStoredFileInputStream(final String id, final KeyIv key,
+                                                final long offset) {
+        LOG.info("Get stream for file {} from offset {}", id, offset);
+        final SecretFile secretFile = getSecretFile(id);
+
+        // compressed data can only be decompressed from the beginning
+        final long cryptOffset = secretFile.getCompression() == Compression.NONE ? offset : 0;
+
         try {
-            return cryptor.getCryptIn(new ByteArrayInputStream(data.get(id)),
-                key);
+            final InputStream fileIn = FileCompressor.decompress(
+                openCryptIn(secretFile, key, cryptOffset), secretFile.getCompression());
+            ByteStreams.skipFully(fileIn, offset - cryptOffset);
+            return fileIn;
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    @Override
+    public InputStream getCompressedFileInputStream(final String id, final KeyIv key) {
+        LOG.info("Get compressed stream for file {}", id);
+        try {
+            return openCryptIn(getSecretFile(id), key, 0);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private SecretFile getSecretFile(final String id) {
+        final SecretFile secretFile = meta.get(id);
+        if (secretFile == null) {
+            throw new IllegalStateException("File " + id + " does not exist");
+        }
+        return secretFile;
+    }
+
+    private InputStream openCryptIn(final SecretFile secretFile, final KeyIv key,
+                                    final long offset) throws IOException {
+        final byte[] fileData = data.get(secretFile.getId());
+        final int position =
+            Math.toIntExact(cryptor.getCipherPosition(secretFile.getFormat(), offset));
+
+        return cryptor.getCryptIn(
+            new ByteArrayInputStream(fileData, position, fileData.length - position),
+            key, secretFile.getFormat(), offset);
+    }
+
     @Override
     public SecretFile storeFile(final String id, final CryptedData originalName,
                                 final InputStream in, final KeyIv key,
@@ -78,18 +130,24 @@ public class FileMemoryRepository implements FileRepository {
         final ByteArrayOutputStream dataOut = new ByteArrayOutputStream();
 
         try {
+            final PushbackInputStream fileIn = FileCompressor.sniffable(in);
+            final Compression fileCompression = FileCompressor.select(fileIn, compression);
             final long originalFileSize;
+            final CountingOutputStream compressedOut =
+                new CountingOutputStream(cryptor.getCryptOut(dataOut, key, storageFormat));
 
-            try (final OutputStream cryptOut = cryptor.getCryptOut(
-                dataOut, key)) {
-                originalFileSize = ByteStreams.copy(in, cryptOut);
+            try (final OutputStream out =
+                     FileCompressor.compress(compressedOut, fileCompression)) {
+                originalFileSize = ByteStreams.copy(fileIn, out);
             }
 
             final SecretFile secretFile =
                 new SecretFile(id, originalName, originalFileSize, dataOut.size(),
-                    key, expiration);
+                    key, expiration, storageFormat, fileCompression,
+                    compressedOut.getCount());
 
             meta.put(id, secretFile);
+            expiryScheduler.schedule(expiryOwner, id, expiration);
             data.put(id, dataOut.toByteArray());
 
             return secretFile;
@@ -106,30 +164,74 @@ public class FileMemoryRepository implements FileRepository {
         meta.remove(id);
     }
 
-    @Scheduled(fixedDelay = 900_000)
-    private void cleanup() {
-        LOG.info("Starting file cleanup Job");
+    @Override
+    public long appendUpload(final String id, final InputStream in, final KeyIv key,
+                             final long offset, final boolean last) {
 
-        final Instant now = Instant.now();
+        LOG.info("Append to upload {} at offset {}", id, offset);
 
-        int messageCnt = 0;
-        for (final Iterator<Map.Entry<String, SecretFile>> it = meta.entrySet().iterator();
-             it.hasNext();) {
+        final byte[] uploaded = uploads.getOrDefault(id, new byte[0]);
+        final int position =
+            Math.toIntExact(cryptor.getCipherPosition(StorageFormat.CBC_SEGMENTED, offset));
+        if (uploaded.length < position) {
+            throw new IllegalStateException("Upload " + id + " has only " + uploaded.length
+                + " bytes - can't continue at position " + position);
+        }
 
-            final Map.Entry<String, SecretFile> entry = it.next();
+        final ByteArrayOutputStream dataOut = new ByteArrayOutputStream();
+        dataOut.write(uploaded, 0, position);
 
-            if (now.isAfter(entry.getValue().getExpiration())) {
-                try {
-                    burnFile(entry.getKey());
-                } catch (final UncheckedIOException e) {
-                    LOG.error("Error deleting file {}", entry.getKey(), e);
-                }
-                it.remove();
-                messageCnt++;
+        try {
+            final long appended;
+            try (final OutputStream cryptOut =
+                     cryptor.getSegmentedAppendOut(dataOut, key, offset, last)) {
+                appended = ByteStreams.copy(in, cryptOut);
             }
+
+            uploads.put(id, dataOut.toByteArray());
+
+            return appended;
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public SecretFile completeUpload(final String id, final CryptedData fileName,
+                                     final long originalFileSize, final KeyIv key,
+                                     final Instant expiration) {
+
+        LOG.info("Complete upload {}", id);
+
+        final byte[] uploaded = uploads.remove(id);
+        if (uploaded == null) {
+            throw new IllegalStateException("Upload " + id + " does not exist");
         }
 
-        LOG.info("Cleaned up {} files", messageCnt);
+        final SecretFile secretFile =
+            new SecretFile(id, fileName, originalFileSize, uploaded.length,
+                key, expiration, StorageFormat.CBC_SEGMENTED, Compression.NONE,
+                originalFileSize);
+
+        meta.put(id, secretFile);
+        expiryScheduler.schedule(expiryOwner, id, expiration);
+        data.put(id, uploaded);
+
+        return secretFile;
+    }
+
+    @Override
+    public void deleteUpload(final String id) {
+        LOG.info("Delete upload {}", id);
+
+        uploads.remove(id);
+    }
+
+    private void expire(final String id) {
+        final SecretFile secretFile = meta.get(id);
+        if (secretFile != null && Instant.now().isAfter(secretFile.getExpiration())) {
+            burnFile(id);
+        }
     }
 
 }
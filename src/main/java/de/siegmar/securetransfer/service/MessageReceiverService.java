@@ -19,18 +19,21 @@ package de.siegmar.securetransfer.service;
 import java.io.InputStream;
 import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 
 import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.PasswordHasher;
+import de.siegmar.securetransfer.component.ReadAhead;
 import de.siegmar.securetransfer.domain.CryptedData;
 import de.siegmar.securetransfer.domain.DecryptedFile;
 import de.siegmar.securetransfer.domain.DecryptedMessage;
@@ -52,16 +55,22 @@ public class MessageReceiverService {
     private final MessageRepository<ReceiverMessage> receiverMsgRepository;
     private final FileRepository fileRepository;
     private final Cryptor cryptor;
+    private final PasswordHasher passwordHasher;
+    private final ReadAhead readAhead;
 
     @Autowired
     public MessageReceiverService(final MessageRepository<SenderMessage> senderMsgRepository,
                                   final MessageRepository<ReceiverMessage> receiverMsgRepository,
                                   final FileRepository fileRepository,
-                                  final Cryptor cryptor) {
+                                  final Cryptor cryptor,
+                                  final PasswordHasher passwordHasher,
+                                  final ReadAhead readAhead) {
         this.senderMsgRepository = senderMsgRepository;
         this.receiverMsgRepository = receiverMsgRepository;
         this.fileRepository = fileRepository;
         this.cryptor = cryptor;
+        this.passwordHasher = passwordHasher;
+        this.readAhead = readAhead;
     }
 
     public boolean isMessagePasswordProtected(final String receiverId) {
@@ -117,11 +126,19 @@ public class MessageReceiverService {
             throw new IllegalStateException("Message is not password protected");
         }
 
+        // submit before counting the attempt - a rejected check must not count as failed attempt
+        final CompletableFuture<Boolean> passwordCheck;
+        try {
+            passwordCheck = passwordHasher.check(password, receiverMessage.getPassword());
+        } catch (final RejectedExecutionException e) {
+            throw new ServiceUnavailableException(passwordHasher.getRetryAfterSeconds());
+        }
+
         final int decryptAttempts = receiverMessage.incrementDecryptAttempt();
 
         receiverMsgRepository.update(receiverMessage.getId(), receiverMessage);
 
-        if (BCrypt.checkpw(password, receiverMessage.getPassword())) {
+        if (passwordCheck.join()) {
             return;
         }
 
@@ -194,11 +211,20 @@ public class MessageReceiverService {
 
         return new DecryptedFile(secretFile.getId(),
             cryptor.decryptString(secretFile.getName().getData(), keyIv),
-            secretFile.getOriginalFileSize(), secretFile.getKeyIv());
+            secretFile.getOriginalFileSize(), secretFile.getKeyIv(),
+            secretFile.getCompression(), secretFile.getCompressedFileSize());
+    }
+
+    public InputStream getStoredFileInputStream(final String id, final KeyIv keyIv,
+                                                final long offset) {
+        return readAhead.wrap(fileRepository.getStoredFileInputStream(id, keyIv, offset));
     }
 
-    public InputStream getStoredFileInputStream(final String id, final KeyIv keyIv) {
-        return fileRepository.getStoredFileInputStream(id, keyIv);
+    /**
+     * Returns the decrypted but still compressed data of the file.
+     */
+    public InputStream getCompressedFileInputStream(final String id, final KeyIv keyIv) {
+        return readAhead.wrap(fileRepository.getCompressedFileInputStream(id, keyIv));
     }
 
     public void burnFile(final String fileId) {
@@ -20,17 +20,15 @@ import java.io.InputStream;
 import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
-import java.util.UUID;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
-import com.google.common.hash.Hashing;
 
 import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.PasswordHasher;
 import de.siegmar.securetransfer.domain.CryptedData;
 import de.siegmar.securetransfer.domain.KeyIv;
 import de.siegmar.securetransfer.domain.ReceiverMessage;
@@ -48,16 +46,19 @@ public class MessageSenderService {
     private final MessageRepository<ReceiverMessage> receiverMsgRepository;
     private final FileRepository fileRepository;
     private final Cryptor cryptor;
+    private final PasswordHasher passwordHasher;
 
     @Autowired
     public MessageSenderService(final MessageRepository<SenderMessage> senderMsgRepository,
                                 final MessageRepository<ReceiverMessage> receiverMsgRepository,
                                 final FileRepository fileRepository,
-                                final Cryptor cryptor) {
+                                final Cryptor cryptor,
+                                final PasswordHasher passwordHasher) {
         this.senderMsgRepository = senderMsgRepository;
         this.receiverMsgRepository = receiverMsgRepository;
         this.fileRepository = fileRepository;
         this.cryptor = cryptor;
+        this.passwordHasher = passwordHasher;
     }
 
     /**
@@ -92,7 +93,7 @@ public class MessageSenderService {
         final String receiverId = newRandomId();
 
         final String hashedPassword =
-            password != null ? BCrypt.hashpw(password, BCrypt.gensalt()) : null;
+            password != null ? passwordHasher.hash(password).join() : null;
 
         final ReceiverMessage receiverMessage = new ReceiverMessage(
             receiverId,
@@ -156,12 +157,7 @@ public class MessageSenderService {
     }
 
     public String newRandomId() {
-        final UUID uuid = UUID.randomUUID();
-        return Hashing.sha256().newHasher()
-            .putLong(System.nanoTime())
-            .putLong(uuid.getMostSignificantBits())
-            .putLong(uuid.getLeastSignificantBits())
-            .hash().toString();
+        return cryptor.newRandomId();
     }
 
     public void burnSenderMessage(final SenderMessage senderMessage) {
@@ -188,6 +184,15 @@ public class MessageSenderService {
             new CryptedData(encryptedFilename, fileIv), in, fileKey, expiration);
     }
 
+    /**
+     * Burns files stored for a message that couldn't be stored.
+     */
+    public void burnFiles(final List<SecretFile> files) {
+        for (final SecretFile file : files) {
+            fileRepository.burnFile(file.getId());
+        }
+    }
+
     public KeyIv newEncryptionKey() {
         return new KeyIv(cryptor.newKey(), cryptor.newIv());
     }
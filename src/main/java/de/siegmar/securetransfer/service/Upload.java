@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.service;
+
+import java.time.Instant;
+
+import de.siegmar.securetransfer.domain.CryptedData;
+import de.siegmar.securetransfer.domain.KeyIv;
+
+/**
+ * State of a resumable file upload. Only the public getters are meant to be reported to the
+ * client.
+ */
+public class Upload {
+
+    private final String id;
+    private final CryptedData name;
+    private final long size;
+    private final int chunkSize;
+    private final KeyIv keyIv;
+    private volatile long received;
+    private volatile boolean complete;
+    private volatile Instant lastAccess = Instant.now();
+    private boolean receiving;
+
+    Upload(final String id, final CryptedData name, final long size, final int chunkSize,
+           final KeyIv keyIv) {
+        this.id = id;
+        this.name = name;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.keyIv = keyIv;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns the number of bytes received so far - the upload continues at this offset.
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Returns if all chunks are received - the file is stored once it is attached to a message.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    CryptedData getName() {
+        return name;
+    }
+
+    KeyIv getKeyIv() {
+        return keyIv;
+    }
+
+    void setReceived(final long received) {
+        this.received = received;
+    }
+
+    void setComplete(final boolean complete) {
+        this.complete = complete;
+    }
+
+    Instant getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = Instant.now();
+    }
+
+    /**
+     * Returns if a chunk is currently being received - guarded by the upload's lock.
+     */
+    boolean isReceiving() {
+        return receiving;
+    }
+
+    void setReceiving(final boolean receiving) {
+        this.receiving = receiving;
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2017 Oliver Siegmar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.siegmar.securetransfer.service;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.io.ByteStreams;
+
+import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.config.SecureTransferConfiguration;
+import de.siegmar.securetransfer.domain.CryptedData;
+import de.siegmar.securetransfer.domain.KeyIv;
+import de.siegmar.securetransfer.domain.SecretFile;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
+import de.siegmar.securetransfer.repository.FileRepository;
+
+/**
+ * Resumable file uploads. A file is uploaded in numbered chunks which are encrypted and appended
+ * to the file store as they arrive. A failed chunk can be repeated without re-uploading the
+ * previous ones. Once all chunks are received the file can be attached to a message (encrypted
+ * with the same key) - it is stored with the expiration of that message.
+ *
+ * The body of a chunk is received without holding the upload's lock - only one chunk of an
+ * upload can be received at a time, though.
+ */
+@Service
+public class UploadService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UploadService.class);
+
+    private final FileRepository fileRepository;
+    private final Cryptor cryptor;
+    private final int chunkSize;
+    private final long maxFileSize;
+    private final Duration timeout;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final ExpiryScheduler expiryScheduler;
+    private final int expiryOwner;
+
+    @Autowired
+    public UploadService(final FileRepository fileRepository, final Cryptor cryptor,
+                         final SecureTransferConfiguration config,
+                         final ExpiryScheduler expiryScheduler) {
+        this.fileRepository = fileRepository;
+        this.cryptor = cryptor;
+        this.expiryScheduler = expiryScheduler;
+        expiryOwner = expiryScheduler.register(this::expire);
+
+        // every chunk but the last one has to end at a segment boundary
+        if (config.getUploadChunkSize() % cryptor.getSegmentSize() != 0) {
+            throw new IllegalStateException("Upload chunk size " + config.getUploadChunkSize()
+                + " is not a multiple of the segment size " + cryptor.getSegmentSize());
+        }
+
+        chunkSize = config.getUploadChunkSize();
+        maxFileSize = config.getMaxFileSize();
+        timeout = Duration.ofMinutes(config.getUploadTimeoutMinutes());
+    }
+
+    public Upload createUpload(final String name, final long size, final byte[] messageKey) {
+
+        if (size < 0 || size > maxFileSize) {
+            throw new IllegalArgumentException(String.format("File %s exceeds size limit of %s",
+                name, FileUtils.byteCountToDisplaySize(maxFileSize)));
+        }
+
+        final byte[] fileIv = cryptor.newIv();
+        final KeyIv fileKey = new KeyIv(messageKey, fileIv);
+
+        final byte[] encryptedFilename = cryptor.encryptString(name, fileKey);
+
+        final Upload upload = new Upload(cryptor.newRandomId(),
+            new CryptedData(encryptedFilename, fileIv), size, chunkSize, fileKey);
+
+        uploads.put(upload.getId(), upload);
+        scheduleExpiry(upload);
+
+        LOG.info("Created upload {} of {} bytes", upload.getId(), size);
+
+        return upload;
+    }
+
+    /**
+     * Returns the upload if it exists and belongs to the given message key.
+     */
+    public Upload getUpload(final String id, final byte[] messageKey) {
+        final Upload upload = uploads.get(id);
+        if (upload == null || messageKey == null
+            || !MessageDigest.isEqual(upload.getKeyIv().getKey(), messageKey)) {
+            throw new MessageNotFoundException();
+        }
+
+        upload.touch();
+        return upload;
+    }
+
+    /**
+     * Stores the given chunk. The chunk has to be the next expected one or a repetition of a
+     * previously received chunk - in the latter case all chunks after it are discarded.
+     */
+    public Upload appendChunk(final String id, final byte[] messageKey, final long chunk,
+                              final InputStream in, final long length) {
+
+        final Upload upload = getUpload(id, messageKey);
+
+        final long offset = chunk * chunkSize;
+        synchronized (upload) {
+            if (upload.isComplete()) {
+                // repeated final chunk - e.g. the response got lost
+                checkActive(upload);
+                return upload;
+            }
+            startChunk(upload, chunk, offset, length);
+        }
+
+        boolean completed = false;
+        try {
+            final boolean last = offset + length == upload.getSize();
+            final long appended = fileRepository.appendUpload(id,
+                ByteStreams.limit(in, length), upload.getKeyIv(), offset, last);
+
+            if (appended != length) {
+                throw new IllegalStateException(String.format(
+                    "Chunk %d of upload %s incomplete (%d of %d bytes)",
+                    chunk, id, appended, length));
+            }
+
+            synchronized (upload) {
+                completeChunk(upload, offset + appended, last);
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                synchronized (upload) {
+                    upload.setReceiving(false);
+                }
+            }
+        }
+
+        return upload;
+    }
+
+    // guarded by the upload's lock
+    private void startChunk(final Upload upload, final long chunk, final long offset,
+                            final long length) {
+        checkActive(upload);
+
+        if (upload.isReceiving()) {
+            throw new IllegalStateException(String.format(
+                "Upload %s is already receiving a chunk", upload.getId()));
+        }
+
+        if (chunk < 0 || offset > upload.getReceived()) {
+            throw new IllegalStateException(String.format("Upload %s continues with chunk %d",
+                upload.getId(), upload.getReceived() / chunkSize));
+        }
+
+        final long expected = Math.min(chunkSize, upload.getSize() - offset);
+        if (length != expected) {
+            throw new IllegalArgumentException(String.format(
+                "Chunk %d of upload %s has to be %d bytes", chunk, upload.getId(), expected));
+        }
+
+        upload.setReceiving(true);
+    }
+
+    // guarded by the upload's lock
+    private void completeChunk(final Upload upload, final long received, final boolean last) {
+        upload.setReceiving(false);
+
+        if (uploads.get(upload.getId()) != upload) {
+            // cancelled or expired while receiving
+            fileRepository.deleteUpload(upload.getId());
+            throw new MessageNotFoundException();
+        }
+
+        upload.setReceived(received);
+        upload.setComplete(last);
+        upload.touch();
+    }
+
+    public void cancelUpload(final String id, final byte[] messageKey) {
+        final Upload upload = getUpload(id, messageKey);
+
+        synchronized (upload) {
+            checkActive(upload);
+            uploads.remove(id);
+            discard(upload);
+        }
+    }
+
+    /**
+     * Removes the completed uploads in order to attach their files to a message. Either all
+     * uploads are claimed or - if one of them is unknown or incomplete - none of them.
+     *
+     * @param expiration the expiration of the message (and thus of its files).
+     */
+    public List<SecretFile> claimUploads(final List<String> ids, final byte[] messageKey,
+                                         final Instant expiration) {
+        final List<Upload> claimed = new ArrayList<>(ids.size());
+        boolean success = false;
+        try {
+            for (final String id : ids) {
+                claimed.add(claimUpload(id, messageKey));
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                claimed.forEach(this::restore);
+            }
+        }
+
+        return storeFiles(claimed, expiration);
+    }
+
+    private List<SecretFile> storeFiles(final List<Upload> claimed, final Instant expiration) {
+        final List<SecretFile> files = new ArrayList<>(claimed.size());
+        boolean stored = false;
+        try {
+            for (final Upload upload : claimed) {
+                files.add(fileRepository.completeUpload(upload.getId(), upload.getName(),
+                    upload.getSize(), upload.getKeyIv(), expiration));
+            }
+            stored = true;
+        } finally {
+            if (!stored) {
+                files.forEach(f -> fileRepository.burnFile(f.getId()));
+                claimed.subList(files.size(), claimed.size())
+                    .forEach(u -> fileRepository.deleteUpload(u.getId()));
+            }
+        }
+
+        return files;
+    }
+
+    private Upload claimUpload(final String id, final byte[] messageKey) {
+        final Upload upload;
+        try {
+            upload = getUpload(id, messageKey);
+        } catch (final MessageNotFoundException e) {
+            throw new IllegalStateException("Upload " + id + " not found");
+        }
+
+        synchronized (upload) {
+            if (uploads.get(id) != upload) {
+                throw new IllegalStateException("Upload " + id + " not found");
+            }
+
+            if (!upload.isComplete()) {
+                throw new IllegalStateException("Upload " + id + " is incomplete");
+            }
+
+            uploads.remove(id);
+            return upload;
+        }
+    }
+
+    // puts back an upload claimed by a failed claimUploads call
+    private void restore(final Upload upload) {
+        synchronized (upload) {
+            upload.touch();
+            uploads.put(upload.getId(), upload);
+            scheduleExpiry(upload);
+        }
+    }
+
+    // the upload may have been removed while waiting for its lock
+    private void checkActive(final Upload upload) {
+        if (uploads.get(upload.getId()) != upload) {
+            throw new MessageNotFoundException();
+        }
+    }
+
+    private void discard(final Upload upload) {
+        fileRepository.deleteUpload(upload.getId());
+    }
+
+    private void scheduleExpiry(final Upload upload) {
+        expiryScheduler.schedule(expiryOwner, upload.getId(),
+            upload.getLastAccess().plus(timeout));
+    }
+
+    /**
+     * Called by the expiry scheduler - discards the upload if it has been inactive for the
+     * timeout. Otherwise its expiry is scheduled again (from its last access).
+     */
+    private void expire(final String id) {
+        final Upload upload = uploads.get(id);
+        if (upload == null) {
+            return;
+        }
+
+        synchronized (upload) {
+            if (upload.isReceiving()) {
+                upload.touch();
+            }
+
+            if (upload.getLastAccess().plus(timeout).isAfter(Instant.now())) {
+                scheduleExpiry(upload);
+            } else if (uploads.remove(id, upload)) {
+                LOG.info("Discard stale upload {}", id);
+                discard(upload);
+            }
+        }
+    }
+
+}
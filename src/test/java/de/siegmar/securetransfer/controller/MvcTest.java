@@ -23,16 +23,28 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.flash;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrlPattern;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipFile;
 
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
@@ -43,15 +55,23 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpSession;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 
+import de.siegmar.securetransfer.component.ConcurrencyLimiter;
 import de.siegmar.securetransfer.controller.dto.EncryptMessageCommand;
 import de.siegmar.securetransfer.domain.DecryptedFile;
 import de.siegmar.securetransfer.domain.DecryptedMessage;
@@ -64,9 +84,16 @@ import de.siegmar.securetransfer.domain.SenderMessage;
 @SuppressWarnings("checkstyle:executablestatementcount")
 public class MvcTest {
 
+    private static final int MESSAGE_BURST = 5;
+    private static final int UPLOAD_CHUNK_SIZE = 256 * 1024;
+    private static final int UPLOAD_SIZE = UPLOAD_CHUNK_SIZE + 100;
+
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private RequestClassFilter requestClassFilter;
+
     @Test
     public void getForm() throws Exception {
         mockMvc.perform(get("/send"))
@@ -271,18 +298,38 @@ public class MvcTest {
         final String fileId = file.getId();
         final String fileKey = file.getKeyHex();
 
-        // Download file
+        // Download part of the file
+        final MvcResult rangeResult = mockMvc
+            .perform(get("/receive/file/{id}/{key}", fileId, fileKey)
+                .sessionAttr("iv_file_" + fileId, file.getKeyIv().getIv())
+                .header(HttpHeaders.RANGE, "bytes=0-3"))
+            .andExpect(request().asyncStarted())
+            .andExpect(status().isPartialContent())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE,
+                "bytes 0-3/" + fileContent.length()))
+            .andReturn();
+
+        rangeResult.getAsyncResult();
+        assertEquals("test", rangeResult.getResponse().getContentAsString());
+
+        // Download file (stored gzip compressed)
         final MvcResult downloadResult = mockMvc
             .perform(get("/receive/file/{id}/{key}", fileId, fileKey)
-                .sessionAttr("iv_file_" + fileId, file.getKeyIv().getIv()))
+                .sessionAttr("iv_file_" + fileId, file.getKeyIv().getIv())
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
             .andExpect(request().asyncStarted())
             //.andExpect(request().asyncResult("Deferred result"))
             .andExpect(status().isOk())
             .andExpect(content().contentType("application/octet-stream"))
+            .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
             .andReturn();
 
         downloadResult.getAsyncResult();
-        assertEquals(fileContent, downloadResult.getResponse().getContentAsString());
+        try (final InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+            downloadResult.getResponse().getContentAsByteArray()))) {
+            assertEquals(fileContent,
+                new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
 
         // Check message is burned
         mockMvc.perform(get(receiveUrl))
@@ -316,4 +363,279 @@ public class MvcTest {
         assertTrue(senderMessage.isPasswordEncrypted());
     }
 
+    @Test
+    public void receiveRateLimited() throws Exception {
+        final String receiverId =
+            Hashing.sha256().hashString("unknown", StandardCharsets.UTF_8).toString();
+
+        for (int i = 0; i < MESSAGE_BURST; i++) {
+            mockMvc.perform(get("/receive/{id}", receiverId)
+                .param("linkSecret", receiverId)
+                .with(r -> {
+                    r.setRemoteAddr("192.0.2.1");
+                    return r;
+                }))
+                .andExpect(status().isNotFound());
+        }
+
+        final MvcResult rejected = mockMvc.perform(get("/receive/{id}", receiverId)
+            .param("linkSecret", receiverId)
+            .with(r -> {
+                r.setRemoteAddr("192.0.2.2");
+                return r;
+            }))
+            .andExpect(status().isTooManyRequests())
+            .andReturn();
+
+        assertNotNull(rejected.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    public void downloadShed() throws Exception {
+        final String fileId =
+            Hashing.sha256().hashString("unknown", StandardCharsets.UTF_8).toString();
+
+        final ConcurrencyLimiter downloadLimiter =
+            requestClassFilter.getLimiter(RequestClass.DOWNLOAD);
+        int acquired = 0;
+        while (downloadLimiter.tryAcquire()) {
+            acquired++;
+        }
+
+        // rejected before the file is resolved
+        try {
+            final MvcResult rejected = mockMvc
+                .perform(get("/receive/file/{id}/{key}", fileId, fileId))
+                .andExpect(status().isServiceUnavailable())
+                .andReturn();
+            assertNotNull(rejected.getResponse().getHeader(HttpHeaders.RETRY_AFTER));
+
+            // other request classes aren't affected
+            mockMvc.perform(get("/send"))
+                .andExpect(status().isOk());
+        } finally {
+            for (int i = 0; i < acquired; i++) {
+                downloadLimiter.release(System.nanoTime());
+            }
+        }
+
+        mockMvc.perform(get("/receive/file/{id}/{key}", fileId, fileId))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void downloadAllFiles() throws Exception {
+        final MockHttpSession session = new MockHttpSession();
+
+        final String boundary = "------TestBoundary" + UUID.randomUUID();
+        final MultipartEntityBuilder builder = MultipartEntityBuilder.create()
+            .setBoundary(boundary)
+            .addTextBody("expirationDays", "1")
+            .addBinaryBody("files", "first".getBytes(StandardCharsets.UTF_8),
+                ContentType.APPLICATION_OCTET_STREAM, "test.txt")
+            .addBinaryBody("files", "second".getBytes(StandardCharsets.UTF_8),
+                ContentType.APPLICATION_OCTET_STREAM, "test.txt");
+
+        final String messageStatusUrl = mockMvc.perform(post("/send")
+            .content(ByteStreams.toByteArray(builder.build().getContent()))
+            .contentType(MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=" + boundary))
+            .andExpect(status().isFound())
+            .andReturn().getResponse().getRedirectedUrl();
+
+        final String receiveUrl = (String) mockMvc.perform(get(messageStatusUrl))
+            .andReturn().getModelAndView().getModel().get("receiveUrl");
+
+        final Map<String, Object> model = mockMvc
+            .perform(get(receiveUrl.replaceFirst("/receive/", "/receive/confirm/"))
+                .session(session))
+            .andExpect(status().isOk())
+            .andReturn().getModelAndView().getModel();
+
+        final DecryptedMessage decryptedMessage =
+            (DecryptedMessage) model.get("decryptedMessage");
+        final DecryptedFile file = decryptedMessage.getFiles().get(0);
+
+        final MvcResult zipResult = mockMvc
+            .perform(get("/receive/files/{id}/{key}", model.get("id"), file.getKeyHex())
+                .session(session))
+            .andExpect(request().asyncStarted())
+            .andExpect(content().contentType("application/zip"))
+            .andReturn();
+        zipResult.getAsyncResult();
+
+        final Path zipFile = Files.createTempFile("securetransfer", ".zip");
+        try {
+            Files.write(zipFile, zipResult.getResponse().getContentAsByteArray());
+            try (final ZipFile zip = new ZipFile(zipFile.toFile())) {
+                assertEquals(2, zip.size());
+                assertEquals("first", readEntry(zip, "test.txt"));
+                assertEquals("second", readEntry(zip, "test (2).txt"));
+            }
+        } finally {
+            Files.delete(zipFile);
+        }
+
+        // files are burned
+        mockMvc.perform(get("/receive/file/{id}/{key}", file.getId(), file.getKeyHex())
+            .session(session))
+            .andExpect(status().isNotFound());
+    }
+
+    private static String readEntry(final ZipFile zip, final String name) throws IOException {
+        try (final InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void chunkedUpload() throws Exception {
+        final byte[] fileContent = new byte[UPLOAD_SIZE];
+        new Random().nextBytes(fileContent);
+        final MockHttpSession session = new MockHttpSession();
+        final ObjectMapper mapper = new ObjectMapper();
+
+        final MvcResult createResult = mockMvc.perform(post("/upload")
+            .session(session)
+            .param("name", "big.bin")
+            .param("size", String.valueOf(fileContent.length)))
+            .andExpect(status().isCreated())
+            .andReturn();
+
+        final JsonNode upload =
+            mapper.readTree(createResult.getResponse().getContentAsString());
+        final String uploadId = upload.get("id").asText();
+        assertEquals(UPLOAD_CHUNK_SIZE, upload.get("chunkSize").asInt());
+
+        final byte[] chunk0 = Arrays.copyOf(fileContent, UPLOAD_CHUNK_SIZE);
+        final byte[] chunk1 =
+            Arrays.copyOfRange(fileContent, UPLOAD_CHUNK_SIZE, fileContent.length);
+
+        // chunks have to be uploaded in order
+        mockMvc.perform(put("/upload/{id}/1", uploadId).session(session).content(chunk1))
+            .andExpect(status().isConflict());
+
+        // chunk may be repeated (e.g. after a network error)
+        for (int i = 0; i < 2; i++) {
+            final MvcResult chunkResult = mockMvc
+                .perform(put("/upload/{id}/0", uploadId).session(session).content(chunk0))
+                .andExpect(status().isOk())
+                .andReturn();
+            assertEquals(UPLOAD_CHUNK_SIZE, mapper.readTree(chunkResult.getResponse()
+                .getContentAsString()).get("received").asLong());
+        }
+
+        // upload isn't accessible from other sessions
+        mockMvc.perform(get("/upload/{id}", uploadId))
+            .andExpect(status().isNotFound());
+
+        mockMvc.perform(put("/upload/{id}/1", uploadId).session(session).content(chunk1))
+            .andExpect(status().isOk());
+
+        final MvcResult statusResult = mockMvc
+            .perform(get("/upload/{id}", uploadId).session(session))
+            .andExpect(status().isOk())
+            .andReturn();
+        assertTrue(mapper.readTree(statusResult.getResponse().getContentAsString())
+            .get("complete").asBoolean());
+
+        // send message with the uploaded file
+        final String boundary = "------TestBoundary" + UUID.randomUUID();
+        final MultipartEntityBuilder builder = MultipartEntityBuilder.create()
+            .setBoundary(boundary)
+            .addTextBody("expirationDays", "1")
+            .addTextBody("uploadId", uploadId);
+
+        final String messageStatusUrl = mockMvc.perform(post("/send")
+            .session(session)
+            .content(ByteStreams.toByteArray(builder.build().getContent()))
+            .contentType(MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=" + boundary))
+            .andExpect(status().isFound())
+            .andReturn().getResponse().getRedirectedUrl();
+
+        final String receiveUrl = (String) mockMvc.perform(get(messageStatusUrl))
+            .andExpect(status().isOk())
+            .andReturn().getModelAndView().getModel().get("receiveUrl");
+
+        final DecryptedMessage decryptedMessage = (DecryptedMessage) mockMvc
+            .perform(get(receiveUrl.replaceFirst("/receive/", "/receive/confirm/")))
+            .andExpect(status().isOk())
+            .andReturn().getModelAndView().getModel().get("decryptedMessage");
+
+        assertEquals(1, decryptedMessage.getFiles().size());
+        final DecryptedFile file = decryptedMessage.getFiles().get(0);
+        assertEquals("big.bin", file.getName());
+
+        final MvcResult downloadResult = mockMvc
+            .perform(get("/receive/file/{id}/{key}", file.getId(), file.getKeyHex())
+                .sessionAttr("iv_file_" + file.getId(), file.getKeyIv().getIv()))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        downloadResult.getAsyncResult();
+        assertTrue(Arrays.equals(fileContent,
+            downloadResult.getResponse().getContentAsByteArray()));
+    }
+
+    @Test
+    public void partiallyInvalidUploads() throws Exception {
+        final byte[] fileContent = new byte[UPLOAD_SIZE];
+        new Random().nextBytes(fileContent);
+        final MockHttpSession session = new MockHttpSession();
+        final String uploadId = completeUpload(session, fileContent);
+        final String unknownId = Strings.repeat("0", uploadId.length());
+
+        // nothing is sent (or claimed) as one of the uploads doesn't exist
+        mockMvc.perform(sendUploads(session, uploadId, unknownId))
+            .andExpect(status().isOk())
+            .andExpect(model().hasErrors());
+
+        mockMvc.perform(get("/upload/{id}", uploadId).session(session))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(sendUploads(session, uploadId))
+            .andExpect(status().isFound());
+    }
+
+    private String completeUpload(final MockHttpSession session, final byte[] content)
+        throws Exception {
+
+        final ObjectMapper mapper = new ObjectMapper();
+        final JsonNode upload = mapper.readTree(mockMvc.perform(post("/upload")
+            .session(session)
+            .param("name", "upload.bin")
+            .param("size", String.valueOf(content.length)))
+            .andExpect(status().isCreated())
+            .andReturn().getResponse().getContentAsString());
+
+        final String uploadId = upload.get("id").asText();
+        final int chunkSize = upload.get("chunkSize").asInt();
+        for (int offset = 0; offset < content.length; offset += chunkSize) {
+            mockMvc.perform(put("/upload/{id}/{chunk}", uploadId, offset / chunkSize)
+                .session(session)
+                .content(Arrays.copyOfRange(content, offset,
+                    Math.min(offset + chunkSize, content.length))))
+                .andExpect(status().isOk());
+        }
+
+        return uploadId;
+    }
+
+    private static MockHttpServletRequestBuilder sendUploads(final MockHttpSession session,
+                                                             final String... uploadIds)
+        throws IOException {
+
+        final String boundary = "------TestBoundary" + UUID.randomUUID();
+        final MultipartEntityBuilder builder = MultipartEntityBuilder.create()
+            .setBoundary(boundary)
+            .addTextBody("expirationDays", "1");
+        for (final String uploadId : uploadIds) {
+            builder.addTextBody("uploadId", uploadId);
+        }
+
+        return post("/send")
+            .session(session)
+            .content(ByteStreams.toByteArray(builder.build().getContent()))
+            .contentType(MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=" + boundary);
+    }
+
 }
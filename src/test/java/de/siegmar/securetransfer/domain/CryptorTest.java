@@ -16,14 +16,52 @@
 
 package de.siegmar.securetransfer.domain;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
 import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.FileCompressor;
+import de.siegmar.securetransfer.component.ReadAhead;
 
+@SuppressWarnings("checkstyle:classdataabstractioncoupling")
 public class CryptorTest {
 
+    private static final int MAX_TEST_SIZE = 100;
+    private static final int TEST_SIZE_STEP = 7;
+    private static final int[] SEGMENTED_TEST_SIZES = {0, 1, 1024 * 1024, 1024 * 1024 + 17};
+    private static final int BLOCK_SIZE = 16;
+    private static final int SEGMENT_SIZE = 256 * 1024;
+    private static final int OFFSET_TEST_SIZE = 2 * SEGMENT_SIZE + 17;
+    private static final long[] TEST_OFFSETS = {0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1,
+        SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, OFFSET_TEST_SIZE - 1, OFFSET_TEST_SIZE,
+    };
+
+    private static final int COMPRESS_TEST_REPEAT = 10_000;
+    private static final int MIN_COMPRESSION_RATIO = 10;
+    private static final byte[] GZIP_HEADER = {0x1F, (byte) 0x8B, 0x08, 0x00};
+    private static final int READ_AHEAD_BLOCK_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_BUFFERS = 3;
+    private static final int CONCURRENT_STREAMS = 64;
+    private static final long TEST_TIMEOUT_MILLIS = 60_000;
+
     private final Cryptor cryptor =
         new Cryptor(new byte[]{34, 23, 56, 23, 68, 34, 23, 54});
 
@@ -38,4 +76,221 @@ public class CryptorTest {
         assertEquals(text, decrypted);
     }
 
+    @Test
+    public void streamAndSinglePassCompatible() throws IOException {
+        for (int size = 0; size < MAX_TEST_SIZE; size += TEST_SIZE_STEP) {
+            final KeyIv keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+            final byte[] data = new byte[size];
+
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (final OutputStream out = cryptor.getCryptOut(bos, keyIv)) {
+                out.write(data);
+            }
+            assertArrayEquals(bos.toByteArray(), cryptor.encrypt(data, keyIv));
+
+            try (final InputStream in =
+                     cryptor.getCryptIn(new ByteArrayInputStream(bos.toByteArray()), keyIv)) {
+                assertArrayEquals(data, ByteStreams.toByteArray(in));
+            }
+            assertArrayEquals(data, cryptor.decrypt(bos.toByteArray(), keyIv));
+        }
+    }
+
+    @Test
+    public void segmented() throws IOException {
+        for (final int size : SEGMENTED_TEST_SIZES) {
+            final KeyIv keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+            final byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+
+            final ByteArrayOutputStream bos = new StrictOutputStream();
+            try (final OutputStream out =
+                     cryptor.getCryptOut(bos, keyIv, StorageFormat.CBC_SEGMENTED)) {
+                out.write(data);
+            }
+            assertEquals(size + BLOCK_SIZE - size % BLOCK_SIZE, bos.size());
+
+            try (final InputStream in = cryptor.getCryptIn(
+                new ByteArrayInputStream(bos.toByteArray()), keyIv, StorageFormat.CBC_SEGMENTED)) {
+                assertArrayEquals(data, ByteStreams.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentSegmentedStreams() throws IOException {
+        final KeyIv keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+        final byte[] data = new byte[OFFSET_TEST_SIZE];
+        new Random(OFFSET_TEST_SIZE).nextBytes(data);
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (final OutputStream out =
+                 cryptor.getCryptOut(bos, keyIv, StorageFormat.CBC_SEGMENTED)) {
+            out.write(data);
+        }
+
+        // more open streams than read-ahead permits - every stream still has to make progress
+        final InputStream[] streams = new InputStream[CONCURRENT_STREAMS];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = cryptor.getCryptIn(new ByteArrayInputStream(bos.toByteArray()), keyIv,
+                StorageFormat.CBC_SEGMENTED);
+            assertEquals(Byte.toUnsignedInt(data[0]), streams[i].read());
+        }
+        for (final InputStream in : streams) {
+            try (final InputStream i = in) {
+                assertArrayEquals(Arrays.copyOfRange(data, 1, data.length),
+                    ByteStreams.toByteArray(i));
+            }
+        }
+    }
+
+    @Test(timeout = TEST_TIMEOUT_MILLIS)
+    public void failedSegmentedWrites() throws IOException {
+        final KeyIv keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+        final byte[] data = new byte[OFFSET_TEST_SIZE];
+
+        // failed streams must not keep the (shared) in-flight permits
+        final OutputStream failingOut = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("Disk full");
+            }
+        };
+        for (int i = 0; i < CONCURRENT_STREAMS; i++) {
+            final OutputStream out =
+                cryptor.getCryptOut(failingOut, keyIv, StorageFormat.CBC_SEGMENTED);
+            try {
+                out.write(data);
+                out.close();
+                fail("IOException expected");
+            } catch (final IOException e) {
+                // expected
+            }
+        }
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (final OutputStream out =
+                 cryptor.getCryptOut(bos, keyIv, StorageFormat.CBC_SEGMENTED)) {
+            out.write(data);
+        }
+        try (final InputStream in = cryptor.getCryptIn(
+            new ByteArrayInputStream(bos.toByteArray()), keyIv, StorageFormat.CBC_SEGMENTED)) {
+            assertArrayEquals(data, ByteStreams.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void decryptFromOffset() throws IOException {
+        final byte[] data = new byte[OFFSET_TEST_SIZE];
+        new Random(OFFSET_TEST_SIZE).nextBytes(data);
+
+        for (final StorageFormat format : StorageFormat.values()) {
+            final KeyIv keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (final OutputStream out = cryptor.getCryptOut(bos, keyIv, format)) {
+                out.write(data);
+            }
+            final byte[] cipherText = bos.toByteArray();
+
+            for (final long offset : TEST_OFFSETS) {
+                final int position = (int) cryptor.getCipherPosition(format, offset);
+                try (final InputStream in = cryptor.getCryptIn(new ByteArrayInputStream(
+                    cipherText, position, cipherText.length - position), keyIv, format, offset)) {
+                    assertArrayEquals(format + " at " + offset,
+                        Arrays.copyOfRange(data, (int) offset, data.length),
+                        ByteStreams.toByteArray(in));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compressThenEncrypt() throws IOException {
+        final byte[] data = Strings.repeat("2017-01-01 INFO log line\n", COMPRESS_TEST_REPEAT)
+            .getBytes(StandardCharsets.UTF_8);
+        final KeyIv keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+
+        final PushbackInputStream in = FileCompressor.sniffable(new ByteArrayInputStream(data));
+        final Compression compression = FileCompressor.select(in, Compression.DEFLATE);
+        assertEquals(Compression.DEFLATE, compression);
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (final OutputStream out = FileCompressor.compress(
+            cryptor.getCryptOut(bos, keyIv, StorageFormat.CBC_SEGMENTED), compression)) {
+            assertEquals(data.length, ByteStreams.copy(in, out));
+        }
+        assertTrue(bos.size() < data.length / MIN_COMPRESSION_RATIO);
+
+        try (final InputStream decrypted = FileCompressor.decompress(cryptor.getCryptIn(
+            new ByteArrayInputStream(bos.toByteArray()), keyIv, StorageFormat.CBC_SEGMENTED),
+            compression)) {
+            assertArrayEquals(data, ByteStreams.toByteArray(decrypted));
+        }
+
+        // already compressed data is stored as is
+        final PushbackInputStream gzipIn =
+            FileCompressor.sniffable(new ByteArrayInputStream(GZIP_HEADER));
+        assertEquals(Compression.NONE, FileCompressor.select(gzipIn, Compression.DEFLATE));
+        assertArrayEquals(GZIP_HEADER, ByteStreams.toByteArray(gzipIn));
+    }
+
+    @Test
+    public void readAhead() throws IOException, InterruptedException {
+        final ReadAhead readAhead = new ReadAhead(READ_AHEAD_BLOCK_SIZE, READ_AHEAD_BUFFERS,
+            READ_AHEAD_BLOCK_SIZE * READ_AHEAD_BUFFERS);
+        final KeyIv keyIv = new KeyIv(cryptor.newKey(), cryptor.newIv());
+        final byte[] data = new byte[OFFSET_TEST_SIZE];
+        new Random().nextBytes(data);
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (final OutputStream out =
+                 cryptor.getCryptOut(bos, keyIv, StorageFormat.CBC_SEGMENTED)) {
+            out.write(data);
+        }
+
+        try (final InputStream in = readAhead.wrap(cryptor.getCryptIn(
+            new ByteArrayInputStream(bos.toByteArray()), keyIv, StorageFormat.CBC_SEGMENTED))) {
+            assertArrayEquals(data, ByteStreams.toByteArray(in));
+
+            // the memory limit is reached - further streams are read directly
+            final InputStream plain = new ByteArrayInputStream(data);
+            assertSame(plain, readAhead.wrap(plain));
+        }
+
+        // abort after the first block
+        try (final InputStream in = readAhead.wrap(new ByteArrayInputStream(data))) {
+            assertEquals(data[0], (byte) in.read());
+        }
+
+        while (readAhead.getMemoryUsed() > 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, readAhead.getStreams());
+        assertEquals(1, readAhead.getBypassed());
+        readAhead.shutdown();
+    }
+
+    /**
+     * Rejects writes after close (like a file channel).
+     */
+    private static final class StrictOutputStream extends ByteArrayOutputStream {
+
+        private volatile boolean closed;
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            if (closed) {
+                throw new IllegalStateException("Stream closed");
+            }
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+    }
+
 }
@@ -16,37 +16,81 @@
 
 package de.siegmar.securetransfer.service;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
 import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import de.siegmar.securetransfer.component.Cryptor;
+import de.siegmar.securetransfer.component.PasswordHasher;
+import de.siegmar.securetransfer.component.ReadAhead;
+import de.siegmar.securetransfer.config.SecureTransferConfiguration;
+import de.siegmar.securetransfer.domain.Compression;
+import de.siegmar.securetransfer.domain.CryptedData;
 import de.siegmar.securetransfer.domain.DecryptedMessage;
 import de.siegmar.securetransfer.domain.KeyIv;
+import de.siegmar.securetransfer.domain.MetadataFormat;
 import de.siegmar.securetransfer.domain.ReceiverMessage;
+import de.siegmar.securetransfer.domain.SecretFile;
 import de.siegmar.securetransfer.domain.SenderMessage;
+import de.siegmar.securetransfer.domain.StorageFormat;
+import de.siegmar.securetransfer.repository.CachingMessageRepository;
+import de.siegmar.securetransfer.repository.ExpiryScheduler;
 import de.siegmar.securetransfer.repository.FileRepository;
+import de.siegmar.securetransfer.repository.Reaper;
+import de.siegmar.securetransfer.repository.disk.BinaryMessageCodec;
 import de.siegmar.securetransfer.repository.disk.FileDiskRepository;
+import de.siegmar.securetransfer.repository.disk.ReceiverMessageDiskRepository;
+import de.siegmar.securetransfer.repository.memory.FileMemoryRepository;
 import de.siegmar.securetransfer.repository.memory.MemoryMessageRepository;
 
+@SuppressWarnings({"checkstyle:classdataabstractioncoupling", "checkstyle:classfanoutcomplexity"})
 public class MessageServiceTest {
 
+    private static final int READ_AHEAD_BLOCK_SIZE = 64 * 1024;
+    private static final byte[] FILE_NAME = {1, 2, 3};
+    private static final byte[] MESSAGE = {4, 5};
+    private static final int EXPIRY_TIMEOUT_MILLIS = 5000;
+    private static final int REAPER_FILES_PER_SECOND = 4;
+    private static final long MESSAGE_CACHE_MEMORY = 64 * 1024;
+    private static final int BINARY_FORMAT_MAGIC = 0xB5;
+    private static final int DISK_FILE_SIZE = 3 * 256 * 1024 + 100;
+    private static final int DISK_FILE_OFFSET = 256 * 1024 + 10;
+
+    private final Cryptor cryptor = new Cryptor(new byte[]{34, 23, 56, 23, 68, 34, 23, 54});
+    private final ExpiryScheduler expiryScheduler = new ExpiryScheduler();
+    private final Reaper reaper = new Reaper(0, 0, 1);
     private final MessageSenderService messageService;
     private final MessageReceiverService messageReceiverService;
 
     public MessageServiceTest() throws IOException {
-        final Cryptor cryptor = new Cryptor(new byte[]{34, 23, 56, 23, 68, 34, 23, 54});
-
         final MemoryMessageRepository<SenderMessage> senderMsgRepository =
             new MemoryMessageRepository<>();
 
@@ -54,13 +98,18 @@ public class MessageServiceTest {
             new MemoryMessageRepository<>();
 
         final FileRepository fileRepository =
-            new FileDiskRepository(Paths.get(System.getProperty("java.io.tmpdir")), cryptor);
+            new FileDiskRepository(Paths.get(System.getProperty("java.io.tmpdir")), cryptor,
+                StorageFormat.CBC_SEGMENTED, Compression.DEFLATE, MetadataFormat.BINARY, false, 1,
+                expiryScheduler, reaper);
+
+        final PasswordHasher passwordHasher = new PasswordHasher(1, 1);
 
         messageService = new MessageSenderService(senderMsgRepository, receiverMsgRepository,
-            fileRepository, cryptor);
+            fileRepository, cryptor, passwordHasher);
 
         messageReceiverService = new MessageReceiverService(senderMsgRepository,
-            receiverMsgRepository, fileRepository, cryptor);
+            receiverMsgRepository, fileRepository, cryptor, passwordHasher,
+            new ReadAhead(READ_AHEAD_BLOCK_SIZE, 2, 0));
     }
 
     @Test
@@ -100,6 +149,330 @@ public class MessageServiceTest {
         assertNotNull(senderMessage3.getReceived());
     }
 
+    @Test
+    public void messageCache() {
+        final MemoryMessageRepository<SenderMessage> repository = new MemoryMessageRepository<>();
+        final CachingMessageRepository<SenderMessage> cache = new CachingMessageRepository<>(
+            repository, BinaryMessageCodec.sender(), MESSAGE_CACHE_MEMORY, Duration.ofMinutes(1));
+
+        final String senderId = messageService.newRandomId();
+        final SenderMessage message =
+            new SenderMessage(senderId, "receiverId", false, Instant.now().plusSeconds(60));
+
+        // write-through
+        cache.create(senderId, message);
+        assertSame(message, repository.read(senderId));
+        final SenderMessage cached = cache.read(senderId);
+        assertEquals(message.getReceiverId(), cached.getReceiverId());
+        assertEquals(message.getExpiration(), cached.getExpiration());
+        assertEquals(1, cache.getStats().hitCount());
+
+        // every read returns a copy - modifications are cached by update only
+        cached.setReceived(Instant.now());
+        assertNull(cache.read(senderId).getReceived());
+        cache.update(senderId, cached);
+        assertEquals(cached.getReceived(), cache.read(senderId).getReceived());
+
+        // invalidated on delete
+        assertTrue(cache.delete(senderId));
+        assertNull(cache.read(senderId));
+        assertNull(repository.read(senderId));
+
+        // expired messages aren't returned from the cache
+        message.setExpiration(Instant.now().minusSeconds(1));
+        repository.create(senderId, message);
+        assertEquals(senderId, cache.read(senderId).getId());
+        assertNull(cache.read(senderId));
+        assertEquals(0, cache.getSize());
+
+        // limited by memory
+        final CachingMessageRepository<SenderMessage> tinyCache = new CachingMessageRepository<>(
+            repository, BinaryMessageCodec.sender(), 1, Duration.ofMinutes(1));
+        message.setExpiration(Instant.now().plus(Duration.ofMinutes(1)));
+        tinyCache.update(senderId, message);
+        assertEquals(0, tinyCache.getSize());
+        assertEquals(senderId, tinyCache.read(senderId).getId());
+    }
+
+    @Test
+    public void diskStore() throws IOException {
+        final Path baseDir = Files.createTempDirectory("securetransfer");
+        final FileDiskRepository repository = new FileDiskRepository(baseDir, cryptor,
+            StorageFormat.CBC_SEGMENTED, Compression.NONE, MetadataFormat.BINARY, false, 1,
+            expiryScheduler, reaper);
+        final KeyIv keyIv = messageService.newEncryptionKey();
+        final byte[] data = new byte[DISK_FILE_SIZE];
+        new Random(DISK_FILE_SIZE).nextBytes(data);
+
+        // multiple segments written by the pipelined segment writer to a file channel
+        final String id = messageService.newRandomId();
+        final SecretFile secretFile = repository.storeFile(id,
+            new CryptedData(FILE_NAME, keyIv.getIv()), new ByteArrayInputStream(data), keyIv,
+            Instant.now().plusSeconds(60));
+        assertEquals(DISK_FILE_SIZE, secretFile.getOriginalFileSize());
+
+        try (final InputStream in = repository.getStoredFileInputStream(id, keyIv, 0)) {
+            assertArrayEquals(data, ByteStreams.toByteArray(in));
+        }
+        try (final InputStream in =
+                 repository.getStoredFileInputStream(id, keyIv, DISK_FILE_OFFSET)) {
+            assertArrayEquals(Arrays.copyOfRange(data, DISK_FILE_OFFSET, DISK_FILE_SIZE),
+                ByteStreams.toByteArray(in));
+        }
+
+        repository.burnFile(id);
+        Files.delete(baseDir.resolve("store"));
+        Files.delete(baseDir);
+    }
+
+    @Test
+    public void uploadChunkWithoutLock() {
+        final SecureTransferConfiguration config = new SecureTransferConfiguration();
+        config.setMaxFileSize(MESSAGE.length);
+        final UploadService uploadService = new UploadService(new FileMemoryRepository(cryptor,
+            StorageFormat.CBC_SEGMENTED, Compression.NONE, expiryScheduler), cryptor, config,
+            expiryScheduler);
+        final byte[] key = messageService.newEncryptionKey().getKey();
+        final String id = uploadService.createUpload("file", MESSAGE.length, key).getId();
+
+        // a chunk whose body is still being received
+        final CountDownLatch receiving = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CompletableFuture<Upload> slowChunk = CompletableFuture.supplyAsync(() ->
+            uploadService.appendChunk(id, key, 0,
+                new FilterInputStream(new ByteArrayInputStream(MESSAGE)) {
+                    @Override
+                    public int read(final byte[] b, final int off, final int len)
+                        throws IOException {
+                        receiving.countDown();
+                        Uninterruptibles.awaitUninterruptibly(proceed);
+                        return super.read(b, off, len);
+                    }
+                }, MESSAGE.length));
+        Uninterruptibles.awaitUninterruptibly(receiving);
+
+        // status queries don't wait - concurrent chunks are rejected
+        assertEquals(0, uploadService.getUpload(id, key).getReceived());
+        try {
+            uploadService.appendChunk(id, key, 0, new ByteArrayInputStream(MESSAGE),
+                MESSAGE.length);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        proceed.countDown();
+        assertTrue(slowChunk.join().isComplete());
+
+        // stored with the expiration of the message it's attached to
+        final Instant expiration = Instant.now().plus(Duration.ofDays(1));
+        final SecretFile file =
+            uploadService.claimUploads(Collections.singletonList(id), key, expiration).get(0);
+        assertEquals(MESSAGE.length, file.getOriginalFileSize());
+        assertEquals(expiration, file.getExpiration());
+    }
+
+    @Test
+    public void metadataFormats() throws IOException {
+        final Path baseDir = Files.createTempDirectory("securetransfer");
+        final String receiverId = messageService.newRandomId();
+        final KeyIv keyIv = messageService.newEncryptionKey();
+        final SecretFile file = new SecretFile(messageService.newRandomId(),
+            new CryptedData(FILE_NAME, keyIv.getIv()), 10, 32, keyIv,
+            Instant.now().plusSeconds(60), StorageFormat.CBC_SEGMENTED, Compression.GZIP, 8);
+        final ReceiverMessage message = new ReceiverMessage(receiverId, "senderId", null,
+            keyIv, new CryptedData(MESSAGE, keyIv.getIv()),
+            Collections.singletonList(file), Instant.now().plusSeconds(60));
+
+        // stored as JSON (previous versions)
+        final ReceiverMessageDiskRepository jsonRepository =
+            new ReceiverMessageDiskRepository(baseDir, MetadataFormat.JSON, expiryScheduler,
+                reaper);
+        jsonRepository.create(receiverId, message);
+
+        // read transparently and updated in binary format
+        final ReceiverMessageDiskRepository binaryRepository =
+            new ReceiverMessageDiskRepository(baseDir, MetadataFormat.BINARY,
+                expiryScheduler, reaper);
+        binaryRepository.init();
+        final ReceiverMessage jsonMessage = binaryRepository.read(receiverId);
+        jsonMessage.incrementDecryptAttempt();
+        binaryRepository.update(receiverId, jsonMessage);
+
+        final ReceiverMessage binaryMessage = jsonRepository.read(receiverId);
+        assertEquals(message.getExpiration(), binaryMessage.getExpiration());
+        assertNull(binaryMessage.getPassword());
+        assertArrayEquals(keyIv.getKey(), binaryMessage.getKeyIv().getKey());
+        assertArrayEquals(MESSAGE, binaryMessage.getMessage().getData());
+        assertEquals(1, binaryMessage.getDecryptAttempts().get());
+
+        final SecretFile binaryFile = binaryMessage.getFiles().get(0);
+        assertEquals(file.getId(), binaryFile.getId());
+        assertArrayEquals(FILE_NAME, binaryFile.getName().getData());
+        assertEquals(Compression.GZIP, binaryFile.getCompression());
+        assertEquals(file.getCompressedFileSize(), binaryFile.getCompressedFileSize());
+
+        // unknown and deleted messages
+        assertNull(binaryRepository.read(messageService.newRandomId()));
+        assertTrue(binaryRepository.delete(receiverId));
+        assertFalse(binaryRepository.delete(receiverId));
+        assertNull(jsonRepository.read(receiverId));
+        Files.delete(baseDir.resolve("receiver_messages"));
+        Files.delete(baseDir);
+    }
+
+    @Test
+    public void lazyFileMetadata() throws IOException {
+        final Path baseDir = Files.createTempDirectory("securetransfer");
+        final KeyIv keyIv = messageService.newEncryptionKey();
+        final Instant expiration = Instant.now().plusSeconds(60);
+
+        // stored as JSON (previous versions) and binary
+        final String jsonId = messageService.newRandomId();
+        new FileDiskRepository(baseDir, cryptor, StorageFormat.CBC_SEGMENTED, Compression.NONE,
+            MetadataFormat.JSON, false, 1, expiryScheduler, reaper).storeFile(jsonId,
+            new CryptedData(FILE_NAME, keyIv.getIv()), new ByteArrayInputStream(MESSAGE), keyIv,
+            expiration);
+
+        final FileDiskRepository lazyRepository = new FileDiskRepository(baseDir, cryptor,
+            StorageFormat.CBC_SEGMENTED, Compression.NONE, MetadataFormat.BINARY, true, 1,
+            expiryScheduler, reaper);
+        final String binaryId = messageService.newRandomId();
+        lazyRepository.storeFile(binaryId, new CryptedData(FILE_NAME, keyIv.getIv()),
+            new ByteArrayInputStream(MESSAGE), keyIv, expiration);
+
+        // only IDs and expirations are read on startup - metadata on demand
+        final FileDiskRepository restarted = new FileDiskRepository(baseDir, cryptor,
+            StorageFormat.CBC_SEGMENTED, Compression.NONE, MetadataFormat.BINARY, true, 1,
+            expiryScheduler, reaper);
+        restarted.init();
+        for (final String id : new String[]{jsonId, binaryId, jsonId}) {
+            final SecretFile secretFile = restarted.resolveStoredFile(id);
+            assertEquals(id, secretFile.getId());
+            assertArrayEquals(FILE_NAME, secretFile.getName().getData());
+            assertEquals(MESSAGE.length, secretFile.getOriginalFileSize());
+        }
+        assertNull(restarted.resolveStoredFile(messageService.newRandomId()));
+
+        for (final String id : new String[]{jsonId, binaryId}) {
+            restarted.burnFile(id);
+            assertNull(restarted.resolveStoredFile(id));
+        }
+        Files.delete(baseDir.resolve("store"));
+        Files.delete(baseDir);
+    }
+
+    @Test
+    public void binaryFormatVersion1() throws IOException {
+        final Path baseDir = Files.createTempDirectory("securetransfer");
+        final KeyIv keyIv = messageService.newEncryptionKey();
+        final String id = messageService.newRandomId();
+        final Instant expiration = Instant.now().plusSeconds(60);
+
+        final Path metaFile = writeVersion1Metadata(baseDir, id, keyIv, expiration);
+
+        for (final boolean lazy : new boolean[]{false, true}) {
+            final FileDiskRepository repository = new FileDiskRepository(baseDir, cryptor,
+                StorageFormat.CBC_SEGMENTED, Compression.NONE, MetadataFormat.BINARY, lazy, 1,
+                expiryScheduler, reaper);
+            repository.init();
+            final SecretFile secretFile = repository.resolveStoredFile(id);
+            assertEquals(expiration, secretFile.getExpiration());
+            assertArrayEquals(FILE_NAME, secretFile.getName().getData());
+            assertArrayEquals(keyIv.getKey(), secretFile.getKeyIv().getKey());
+            assertEquals(StorageFormat.CBC_SEGMENTED, secretFile.getFormat());
+        }
+
+        Files.delete(metaFile);
+        Files.delete(baseDir.resolve("store"));
+        Files.delete(baseDir);
+    }
+
+    /**
+     * Writes file metadata in the layout of version 1 (expiration after the key).
+     */
+    private static Path writeVersion1Metadata(final Path baseDir, final String id,
+                                              final KeyIv keyIv, final Instant expiration)
+        throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(BINARY_FORMAT_MAGIC);
+        out.writeByte(1);
+        out.writeUTF(id);
+        writeBinaryPair(out, FILE_NAME, keyIv.getIv());
+        out.writeLong(MESSAGE.length);
+        out.writeLong(MESSAGE.length);
+        writeBinaryPair(out, keyIv.getKey(), keyIv.getIv());
+        out.writeBoolean(true);
+        out.writeLong(expiration.getEpochSecond());
+        out.writeInt(expiration.getNano());
+        out.writeUTF(StorageFormat.CBC_SEGMENTED.name());
+        out.writeUTF(Compression.NONE.name());
+        out.writeLong(MESSAGE.length);
+        final Path storePath = Files.createDirectories(baseDir.resolve("store"));
+        return Files.write(storePath.resolve(id + ".meta"), bos.toByteArray());
+    }
+
+    private static void writeBinaryPair(final DataOutputStream out, final byte[] first,
+                                        final byte[] second) throws IOException {
+        out.writeBoolean(true);
+        out.writeInt(first.length);
+        out.write(first);
+        out.writeInt(second.length);
+        out.write(second);
+    }
+
+    @Test
+    public void expiry() throws IOException, InterruptedException {
+        final Path baseDir = Files.createTempDirectory("securetransfer");
+        final KeyIv keyIv = messageService.newEncryptionKey();
+        final FileDiskRepository repository = new FileDiskRepository(baseDir, cryptor,
+            StorageFormat.CBC_SEGMENTED, Compression.NONE, MetadataFormat.BINARY, false, 1,
+            expiryScheduler, reaper);
+
+        final String id = messageService.newRandomId();
+        repository.storeFile(id, new CryptedData(FILE_NAME, keyIv.getIv()),
+            new ByteArrayInputStream(MESSAGE), keyIv, Instant.now());
+
+        // deleted close to the expiration (within seconds)
+        final Path storePath = baseDir.resolve("store");
+        for (int i = 0; i < EXPIRY_TIMEOUT_MILLIS && storePath.toFile().list().length > 0; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, storePath.toFile().list().length);
+        assertNull(repository.resolveStoredFile(id));
+        assertEquals(1, expiryScheduler.getFired());
+        assertEquals(2, reaper.getReclaimedFiles());
+        assertTrue(reaper.getReclaimedBytes() > MESSAGE.length);
+
+        Files.delete(storePath);
+        Files.delete(baseDir);
+    }
+
+    @Test
+    public void reaperRateLimit() throws IOException, InterruptedException {
+        final Path baseDir = Files.createTempDirectory("securetransfer");
+        final Path[] files = new Path[REAPER_FILES_PER_SECOND + 1];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = Files.write(baseDir.resolve(Integer.toString(i)), MESSAGE);
+        }
+
+        // the initially full bucket allows one second worth of files - the rest has to wait
+        final Reaper limitedReaper = new Reaper(REAPER_FILES_PER_SECOND, 0, 1);
+        final long start = System.nanoTime();
+        limitedReaper.submit(files);
+        while (limitedReaper.getBacklog() > 0) {
+            Thread.sleep(1);
+        }
+        final long elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertTrue(elapsedMillis >= Duration.ofSeconds(1).toMillis() / REAPER_FILES_PER_SECOND);
+        assertEquals(files.length, limitedReaper.getReclaimedFiles());
+        assertEquals(files.length * MESSAGE.length, limitedReaper.getReclaimedBytes());
+        limitedReaper.shutdown();
+        Files.delete(baseDir);
+    }
+
     @Test
     public void withPassword() {
         // Store without password